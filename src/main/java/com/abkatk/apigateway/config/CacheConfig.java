@@ -1,7 +1,12 @@
 // src/main/java/com/abkatk/apigateway/config/CacheConfig.java
 package com.abkatk.apigateway.config;
 
+import com.abkatk.apigateway.filter.CachingGatewayFilterFactory;
+import com.abkatk.apigateway.filter.ResponseCacheIndex;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.cache.caffeine.CaffeineCacheManager;
@@ -14,29 +19,76 @@ import java.util.concurrent.TimeUnit;
 @EnableCaching // Enables Spring's caching abstraction
 public class CacheConfig {
 
+    // Memory budget for cached bodies, including their compressed variants
+    @Value("${gateway.cache.max-weight-bytes:67108864}")
+    private long maxWeightBytes;
+
+    // Separate, smaller budget for negatively cached error responses
+    @Value("${gateway.cache.negative.max-weight-bytes:4194304}")
+    private long negativeMaxWeightBytes;
+
     /**
      * Configures a CaffeineCacheManager for the API Gateway.
      * This cache manager will manage caches with a maximum size and a time-to-live.
      *
+     * @param cacheIndex Tag/prefix index that is kept in sync with removals from the cache.
      * @return Configured CacheManager instance.
      */
     @Bean
-    public CacheManager cacheManager() {
+    public CacheManager cacheManager(ResponseCacheIndex cacheIndex) {
         CaffeineCacheManager cacheManager = new CaffeineCacheManager("apiResponses"); // Define a cache name
-        cacheManager.setCaffeine(caffeineCacheBuilder());
+        cacheManager.setCaffeine(caffeineCacheBuilder(cacheIndex));
+        // Registered as a custom cache so it keeps its own size bound and per-entry expiry
+        cacheManager.registerCustomCache("negativeResponses", negativeCacheBuilder().build());
         return cacheManager;
     }
 
     /**
      * Builds the Caffeine cache configuration.
-     * Sets a maximum size for the cache and an expiration time for entries.
+     * Bounds the cache by the approximate bytes held by its entries and sets an expiration time for entries.
      *
+     * @param cacheIndex Index to unindex entries from when they are removed.
      * @return Caffeine builder with desired settings.
      */
-    Caffeine<Object, Object> caffeineCacheBuilder() {
+    Caffeine<Object, Object> caffeineCacheBuilder(ResponseCacheIndex cacheIndex) {
         return Caffeine.newBuilder()
-                .maximumSize(1000) // Maximum number of entries in the cache
+                .maximumWeight(maxWeightBytes) // Maximum bytes held by the cache
+                .weigher((Object key, Object value) -> value instanceof CachingGatewayFilterFactory.CachedResponse cached
+                        ? cached.weight() : 1)
                 .expireAfterAccess(5, TimeUnit.MINUTES) // Entries expire 5 minutes after last access
+                .removalListener((Object key, Object value, RemovalCause cause) -> cacheIndex.onRemoval(key, value, cause))
                 .recordStats(); // Record cache statistics for monitoring (optional)
     }
+
+    /**
+     * Builds the cache of negatively cached error responses.
+     * Each entry expires after its own TTL, chosen by CachingGatewayFilterFactory from the status and Retry-After;
+     * reads do not extend it.
+     *
+     * @return Caffeine builder for the negativeResponses cache.
+     */
+    Caffeine<Object, Object> negativeCacheBuilder() {
+        return Caffeine.newBuilder()
+                .maximumWeight(negativeMaxWeightBytes)
+                .weigher((Object key, Object value) -> value instanceof CachingGatewayFilterFactory.NegativeCachedResponse negative
+                        ? negative.getResponse().weight() : 1)
+                .expireAfter(new Expiry<Object, Object>() {
+                    @Override
+                    public long expireAfterCreate(Object key, Object value, long currentTime) {
+                        return value instanceof CachingGatewayFilterFactory.NegativeCachedResponse negative
+                                ? negative.getTtlNanos() : 0;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Object key, Object value, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(Object key, Object value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats();
+    }
 }
@@ -0,0 +1,208 @@
+package com.abkatk.apigateway.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Holds the fallback bodies served by GlobalFallbackHandler when a circuit is
+ * open or a call times out. Bodies are read once at startup into read-only
+ * direct buffers, so serving one neither reads a file nor encodes JSON.
+ *
+ * Sources, later ones overriding earlier ones:
+ * <ol>
+ * <li>{@code classpath:static/fallback.json} as the default for every service,</li>
+ * <li>{@code classpath:fallback/<service>.json} per service,</li>
+ * <li>{@code <gateway.fallback.directory>/<service>.json} (and
+ * {@code default.json}) on disk. This directory is watched and files are
+ * reloaded once it has been quiet for a moment after a change. A file that is
+ * empty or not valid JSON, typically one caught half-written, is not loaded and
+ * the previous body stays in use.</li>
+ * </ol>
+ */
+@Component
+public class FallbackPayloadRegistry {
+
+    private static final String DEFAULT_SERVICE = "default";
+    private static final String JSON_SUFFIX = ".json";
+    /** Changes are reloaded once no further event has arrived for this long. */
+    private static final long RELOAD_QUIET_PERIOD_MILLIS = 250;
+    private static final ObjectMapper JSON = new ObjectMapper()
+            .enable(DeserializationFeature.FAIL_ON_TRAILING_TOKENS);
+
+    private final String directory;
+    private final Map<String, ByteBuffer> classpathPayloads = new ConcurrentHashMap<>();
+    private final Map<String, ByteBuffer> payloads = new ConcurrentHashMap<>();
+    private WatchService watchService;
+
+    public FallbackPayloadRegistry(@Value("${gateway.fallback.directory:}") String directory) {
+        this.directory = directory;
+    }
+
+    @PostConstruct
+    void load() throws IOException {
+        PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+        Resource defaultResource = resolver.getResource("classpath:static/fallback.json");
+        if (defaultResource.exists()) {
+            classpathPayloads.put(DEFAULT_SERVICE, readPayload(defaultResource));
+        }
+        for (Resource resource : resolver.getResources("classpath*:fallback/*" + JSON_SUFFIX)) {
+            String service = serviceName(resource.getFilename());
+            if (service != null) {
+                classpathPayloads.put(service, readPayload(resource));
+            }
+        }
+        payloads.putAll(classpathPayloads);
+
+        if (!directory.isBlank()) {
+            Path dir = Paths.get(directory);
+            if (Files.isDirectory(dir)) {
+                try (Stream<Path> files = Files.list(dir)) {
+                    files.forEach(this::reload);
+                }
+                watch(dir);
+            } else {
+                System.err.println("Fallback directory does not exist: " + dir);
+            }
+        }
+    }
+
+    @PreDestroy
+    void stop() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    /**
+     * Returns the fallback body for a service, or the default body if the service has none.
+     *
+     * @param service The service name, e.g. "unison".
+     * @return A read-only buffer positioned at the start of the body; callers must not
+     *         move its position (use {@link ByteBuffer#duplicate()}), or null if no body exists.
+     */
+    public ByteBuffer payloadFor(String service) {
+        ByteBuffer payload = payloads.get(service);
+        return payload != null ? payload : payloads.get(DEFAULT_SERVICE);
+    }
+
+    private void watch(Path dir) throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        Thread watcher = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watchService.take();
+                    // Files are often written in several steps; collect events until they stop
+                    Set<Path> changed = new LinkedHashSet<>();
+                    while (key != null) {
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            if (event.context() instanceof Path file) {
+                                changed.add(dir.resolve(file));
+                            }
+                        }
+                        key.reset();
+                        key = watchService.poll(RELOAD_QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+                    changed.forEach(this::reload);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ClosedWatchServiceException e) {
+                // Shutting down
+            }
+        }, "fallback-payload-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Loads a file from the fallback directory, or reverts to the classpath body if it was deleted.
+     */
+    private void reload(Path file) {
+        String service = serviceName(file.getFileName().toString());
+        if (service == null) {
+            return;
+        }
+        try {
+            if (Files.isRegularFile(file)) {
+                byte[] bytes = Files.readAllBytes(file);
+                if (!isJson(bytes)) {
+                    System.err.println("Ignoring fallback payload " + file
+                            + " that is empty or not valid JSON; keeping the previous body");
+                    return;
+                }
+                payloads.put(service, toReadOnlyBuffer(bytes));
+                System.out.println("Loaded fallback payload for '" + service + "' from " + file);
+            } else {
+                ByteBuffer original = classpathPayloads.get(service);
+                if (original != null) {
+                    payloads.put(service, original);
+                } else {
+                    payloads.remove(service);
+                }
+                System.out.println("Fallback payload file for '" + service + "' removed: " + file);
+            }
+        } catch (IOException e) {
+            // Keep serving the previous body; the file may still be being written
+            System.err.println("Failed to load fallback payload " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static boolean isJson(byte[] bytes) {
+        if (bytes.length == 0) {
+            return false;
+        }
+        try {
+            return !JSON.readTree(bytes).isMissingNode();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String serviceName(String fileName) {
+        if (fileName == null || !fileName.endsWith(JSON_SUFFIX)) {
+            return null;
+        }
+        return fileName.substring(0, fileName.length() - JSON_SUFFIX.length());
+    }
+
+    private static ByteBuffer readPayload(Resource resource) throws IOException {
+        try (InputStream in = resource.getInputStream()) {
+            return toReadOnlyBuffer(in.readAllBytes());
+        }
+    }
+
+    private static ByteBuffer toReadOnlyBuffer(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+}
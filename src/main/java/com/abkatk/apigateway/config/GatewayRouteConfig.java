@@ -1,8 +1,16 @@
 // src/main/java/com/abkatk/apigateway/config/GatewayRouteConfig.java
 package com.abkatk.apigateway.config;
 
+import java.time.Duration;
+import java.util.Set;
+
+import com.abkatk.apigateway.filter.AdaptiveConcurrencyGatewayFilterFactory;
+import com.abkatk.apigateway.filter.BudgetedRetryGatewayFilterFactory;
 import com.abkatk.apigateway.filter.CachingGatewayFilterFactory; // Import the new filter
+import com.abkatk.apigateway.filter.DeadlineGatewayFilterFactory;
+import com.abkatk.apigateway.filter.HedgingGatewayFilterFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.client.discovery.DiscoveryClient;
 import org.springframework.cloud.gateway.filter.ratelimit.KeyResolver;
 import org.springframework.cloud.gateway.route.RouteLocator;
@@ -20,6 +28,95 @@ public class GatewayRouteConfig {
 	@Autowired
 	private CachingGatewayFilterFactory cachingFilterFactory;
 
+	@Autowired
+	private HedgingGatewayFilterFactory hedgingFilterFactory;
+
+	// Hedging is opt-in (see gateway.hedging in application.yaml)
+	@Value("${gateway.hedging.enabled:false}")
+	private boolean hedgingEnabled;
+
+	@Value("${gateway.hedging.percentile:95}")
+	private int hedgingPercentile;
+
+	@Value("${gateway.hedging.min-delay:20ms}")
+	private Duration hedgingMinDelay;
+
+	@Value("${gateway.hedging.max-delay:500ms}")
+	private Duration hedgingMaxDelay;
+
+	@Value("${gateway.hedging.budget-percent:10}")
+	private int hedgingBudgetPercent;
+
+	@Autowired
+	private AdaptiveConcurrencyGatewayFilterFactory concurrencyFilterFactory;
+
+	@Value("${gateway.concurrency.initial-limit:20}")
+	private int concurrencyInitialLimit;
+
+	@Value("${gateway.concurrency.min-limit:5}")
+	private int concurrencyMinLimit;
+
+	@Value("${gateway.concurrency.max-limit:200}")
+	private int concurrencyMaxLimit;
+
+	@Value("${gateway.concurrency.rtt-tolerance:1.5}")
+	private double concurrencyRttTolerance;
+
+	@Autowired
+	private DeadlineGatewayFilterFactory deadlineFilterFactory;
+
+	@Value("${gateway.deadline.enabled:true}")
+	private boolean deadlineEnabled;
+
+	// The deadline budget follows the circuit breaker's time limiter
+	@Value("${resilience4j.timelimiter.instances.unison-CB.timeoutDuration:5s}")
+	private Duration unisonTimeout;
+
+	@Value("${gateway.deadline.margin:100ms}")
+	private Duration deadlineMargin;
+
+	@Value("${gateway.deadline.header:X-Request-Timeout-Ms}")
+	private String deadlineHeader;
+
+	@Autowired
+	private BudgetedRetryGatewayFilterFactory retryFilterFactory;
+
+	@Value("${gateway.retry.enabled:true}")
+	private boolean retryEnabled;
+
+	@Value("${gateway.retry.retries:2}")
+	private int retryRetries;
+
+	@Value("${gateway.retry.statuses:502,503,504}")
+	private Set<Integer> retryStatuses;
+
+	@Value("${gateway.retry.first-backoff:50ms}")
+	private Duration retryFirstBackoff;
+
+	@Value("${gateway.retry.max-backoff:500ms}")
+	private Duration retryMaxBackoff;
+
+	@Value("${gateway.retry.budget-percent:20}")
+	private int retryBudgetPercent;
+
+	@Value("${gateway.retry.max-body-bytes:65536}")
+	private long retryMaxBodyBytes;
+
+	@Value("${gateway.cache.negative.client-error-statuses:404,410}")
+	private Set<Integer> negativeClientErrorStatuses;
+
+	@Value("${gateway.cache.negative.client-error-ttl:10s}")
+	private Duration negativeClientErrorTtl;
+
+	@Value("${gateway.cache.negative.server-error-statuses:502,503,504}")
+	private Set<Integer> negativeServerErrorStatuses;
+
+	@Value("${gateway.cache.negative.server-error-ttl:2s}")
+	private Duration negativeServerErrorTtl;
+
+	@Value("${gateway.cache.negative.max-ttl:30s}")
+	private Duration negativeMaxTtl;
+
 	@Bean
 	RouteLocator dynamicRoutes(RouteLocatorBuilder builder, DiscoveryClient discoveryClient) {
 		RouteLocatorBuilder.Builder routes = builder.routes();
@@ -30,7 +127,23 @@ public class GatewayRouteConfig {
 		// you should uncomment the forEach loop.
 		// discoveryClient.getServices().forEach(serviceId -> {
 		routes.route("unison",
-				r -> r.path("/unison/**").filters(f -> f.stripPrefix(1).circuitBreaker(c -> c.setName("unison-CB"))
+				r -> r.path("/unison/**").filters(f -> f.stripPrefix(1)
+						// Outside the circuit breaker, so deadlines shortened by a caller are not
+						// recorded as breaker failures; route timeouts are left to the time limiter
+						.filter(deadlineFilterFactory.apply(new DeadlineGatewayFilterFactory.Config()
+								.setEnabled(deadlineEnabled).setBudget(unisonTimeout).setMargin(deadlineMargin)
+								.setHeader(deadlineHeader)))
+						// Sheds load with a fast 503 before the circuit breaker sees the request
+						.filter(concurrencyFilterFactory.apply(new AdaptiveConcurrencyGatewayFilterFactory.Config()
+								.setInitialLimit(concurrencyInitialLimit).setMinLimit(concurrencyMinLimit)
+								.setMaxLimit(concurrencyMaxLimit).setRttTolerance(concurrencyRttTolerance)))
+						// Open-circuit and timeout responses come from the preloaded fallback payloads
+						.circuitBreaker(c -> c.setName("unison-CB").setFallbackUri("forward:/fallback/unison"))
+						// Retries share the request deadline and stay a single circuit breaker call
+						.filter(retryFilterFactory.apply(new BudgetedRetryGatewayFilterFactory.Config()
+								.setEnabled(retryEnabled).setRetries(retryRetries).setStatuses(retryStatuses)
+								.setFirstBackoff(retryFirstBackoff).setMaxBackoff(retryMaxBackoff)
+								.setBudgetPercent(retryBudgetPercent).setMaxBodyBytes(retryMaxBodyBytes)))
 						// --- FIX: REMOVED THE requestRateLimiter BLOCK FROM HERE ---
 						// The RequestRateLimiter is now applied globally via default-filters in
 						// application.yml.
@@ -39,10 +152,22 @@ public class GatewayRouteConfig {
 							return chain.filter(exchange);
 						})
 						// ADD THE CACHING FILTER HERE
-						.filter(cachingFilterFactory.apply(new CachingGatewayFilterFactory.Config())))
+						.filter(cachingFilterFactory.apply(new CachingGatewayFilterFactory.Config()
+								.setClientErrorStatuses(negativeClientErrorStatuses)
+								.setClientErrorTtl(negativeClientErrorTtl)
+								.setServerErrorStatuses(negativeServerErrorStatuses)
+								.setServerErrorTtl(negativeServerErrorTtl)
+								.setMaxNegativeTtl(negativeMaxTtl)))
+						// Hedged GETs are answered by this filter, so it stays inside the circuit breaker
+						.filter(hedgingFilterFactory.apply(new HedgingGatewayFilterFactory.Config()
+								.setEnabled(hedgingEnabled).setPercentile(hedgingPercentile)
+								.setMinDelay(hedgingMinDelay).setMaxDelay(hedgingMaxDelay)
+								.setBudgetPercent(hedgingBudgetPercent))))
 						.uri("lb://unison"));
 		// });
 
+		// Aggregation routes are declared in application.yaml; see "Aggregation routes" in the README.
+
 		return routes.build();
 	}
 }
@@ -10,6 +10,7 @@ import org.springframework.security.web.server.authentication.AuthenticationWebF
 
 import com.abkatk.apigateway.security.BearerTokenServerAuthenticationConverter;
 import com.abkatk.apigateway.security.JwtAuthenticationManager;
+import com.abkatk.apigateway.security.PathAuthorizationRules;
 
 @Configuration
 @EnableWebFluxSecurity
@@ -24,15 +25,26 @@ public class SecurityConfig {
         this.authenticationConverter = authenticationConverter;
     }
 
+    /**
+     * Path access rules, compiled into a single lookup on the first path segment
+     * (see PathAuthorizationRules). Order matters: the first matching rule wins.
+     */
+    @Bean
+    PathAuthorizationRules pathAuthorizationRules() {
+        return PathAuthorizationRules.builder()
+            .pathMatchers("/public/**", "/actuator/**", "/fallback/**").permitAll()
+            .pathMatchers("/admin/**").hasRole("ADMIN")
+            .pathMatchers("/users/**").hasAnyRole("USER", "ADMIN")
+            .anyExchange().authenticated()
+            .build();
+    }
+
     @Bean
     SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http) {
         http
             .csrf(ServerHttpSecurity.CsrfSpec::disable)
             .authorizeExchange(exchanges -> exchanges
-                .pathMatchers("/public/**", "/actuator/**", "/fallback/**").permitAll()
-                .pathMatchers("/admin/**").hasRole("ADMIN")
-                .pathMatchers("/users/**").hasAnyRole("USER", "ADMIN")
-                .anyExchange().authenticated()
+                .anyExchange().access(pathAuthorizationRules())
             )
             .addFilterAt(authenticationWebFilter(), SecurityWebFiltersOrder.AUTHENTICATION); // Line 41: SecurityWebFiltersOrder should now be found
 
@@ -43,6 +55,8 @@ public class SecurityConfig {
     public AuthenticationWebFilter authenticationWebFilter() {
         AuthenticationWebFilter authenticationWebFilter = new AuthenticationWebFilter(authenticationManager);
         authenticationWebFilter.setServerAuthenticationConverter(authenticationConverter);
+        // Public paths never reach the converter or JwtAuthenticationManager
+        authenticationWebFilter.setRequiresAuthenticationMatcher(pathAuthorizationRules().authenticationRequiredMatcher());
         return authenticationWebFilter;
     }
 }
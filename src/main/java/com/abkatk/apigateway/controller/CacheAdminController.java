@@ -0,0 +1,54 @@
+package com.abkatk.apigateway.controller;
+
+import java.util.Map;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.abkatk.apigateway.filter.ResponseCacheInvalidator;
+
+/**
+ * Admin endpoint for invalidating cached API responses. Lives under
+ * {@code /admin/**}, which SecurityConfig restricts to the ADMIN role.
+ *
+ * Exactly one selector must be given:
+ * <ul>
+ * <li>{@code DELETE /admin/cache/entries?key=http://host:8085/unison/user/1}</li>
+ * <li>{@code DELETE /admin/cache/entries?prefix=/unison/user/}</li>
+ * <li>{@code DELETE /admin/cache/entries?tag=user-1}</li>
+ * </ul>
+ */
+@RestController
+@RequestMapping("/admin/cache")
+public class CacheAdminController {
+
+	private final ResponseCacheInvalidator cacheInvalidator;
+
+	public CacheAdminController(ResponseCacheInvalidator cacheInvalidator) {
+		this.cacheInvalidator = cacheInvalidator;
+	}
+
+	@DeleteMapping("/entries")
+	public Map<String, Object> invalidate(@RequestParam(required = false) String key,
+			@RequestParam(required = false) String prefix, @RequestParam(required = false) String tag) {
+		int selectors = (key != null ? 1 : 0) + (prefix != null ? 1 : 0) + (tag != null ? 1 : 0);
+		if (selectors != 1) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+					"Exactly one of 'key', 'prefix' or 'tag' must be given");
+		}
+
+		int invalidated;
+		if (key != null) {
+			invalidated = cacheInvalidator.invalidateKey(key);
+		} else if (prefix != null) {
+			invalidated = cacheInvalidator.invalidatePathPrefix(prefix);
+		} else {
+			invalidated = cacheInvalidator.invalidateTag(tag);
+		}
+		return Map.of("invalidated", invalidated);
+	}
+}
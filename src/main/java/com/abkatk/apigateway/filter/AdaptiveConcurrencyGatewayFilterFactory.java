@@ -0,0 +1,248 @@
+package com.abkatk.apigateway.filter;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CIRCUITBREAKER_EXECUTION_EXCEPTION_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.SignalType;
+
+/**
+ * GatewayFilterFactory that bounds the number of in-flight requests per route
+ * with a limit that adapts to observed round-trip times (gradient style). While
+ * upstream latency stays close to its long-term average the limit grows; once
+ * latency rises the limit shrinks, so the gateway starts rejecting with 503
+ * before the circuit breaker sees failures.
+ *
+ * The filter sits outside the circuit breaker, whose fallback turns upstream
+ * failures into normal completions. Requests answered by the fallback are
+ * therefore never used as latency samples: an upstream failure or timeout
+ * counts as a drop, and a request rejected by an open circuit is ignored.
+ *
+ * The current limit, in-flight count and rejections are published as
+ * {@code gateway.concurrency.limit}, {@code gateway.concurrency.inflight} and
+ * {@code gateway.concurrency.rejected}, tagged with the route id.
+ */
+@Component
+public class AdaptiveConcurrencyGatewayFilterFactory
+		extends AbstractGatewayFilterFactory<AdaptiveConcurrencyGatewayFilterFactory.Config> {
+
+	private final Map<String, AdaptiveLimit> limits = new ConcurrentHashMap<>();
+	private final MeterRegistry meterRegistry;
+
+	public AdaptiveConcurrencyGatewayFilterFactory(MeterRegistry meterRegistry) {
+		super(Config.class);
+		this.meterRegistry = meterRegistry;
+	}
+
+	/**
+	 * Applies the adaptive limit to the gateway request. The limit is kept per
+	 * route id, so the same filter may be shared by several routes.
+	 *
+	 * @param config The configuration for this filter instance.
+	 * @return A GatewayFilter instance.
+	 */
+	@Override
+	public GatewayFilter apply(Config config) {
+		return (exchange, chain) -> {
+			Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+			String routeId = route != null ? route.getId() : "unknown";
+			AdaptiveLimit limit = limits.computeIfAbsent(routeId, id -> register(id, config));
+
+			if (!limit.tryAcquire()) {
+				// Reject without touching the upstream or the circuit breaker
+				limit.rejected.increment();
+				ServerHttpResponse response = exchange.getResponse();
+				response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+				return response.setComplete();
+			}
+
+			long start = System.nanoTime();
+			return chain.filter(exchange).doFinally(signal -> limit.release(System.nanoTime() - start, signal,
+					exchange.getAttribute(CIRCUITBREAKER_EXECUTION_EXCEPTION_ATTR)));
+		};
+	}
+
+	private AdaptiveLimit register(String routeId, Config config) {
+		AdaptiveLimit limit = new AdaptiveLimit(config,
+				Counter.builder("gateway.concurrency.rejected").tag("route", routeId).register(meterRegistry));
+		Gauge.builder("gateway.concurrency.limit", limit, AdaptiveLimit::getLimit).tag("route", routeId)
+				.register(meterRegistry);
+		Gauge.builder("gateway.concurrency.inflight", limit, AdaptiveLimit::getInFlight).tag("route", routeId)
+				.register(meterRegistry);
+		return limit;
+	}
+
+	/**
+	 * Configuration class for the AdaptiveConcurrencyGatewayFilterFactory.
+	 */
+	public static class Config {
+		private int initialLimit = 20;
+		private int minLimit = 5;
+		private int maxLimit = 200;
+		/** How much slower than the long-term RTT a sample may be before the limit shrinks. */
+		private double rttTolerance = 1.5;
+		/** Weight of a new estimate when smoothing the limit. */
+		private double smoothing = 0.2;
+		/** Number of samples the long-term RTT average roughly spans. */
+		private int longWindow = 600;
+		/** Factor applied to the limit when a request fails. */
+		private double backoffRatio = 0.9;
+
+		public int getInitialLimit() {
+			return initialLimit;
+		}
+
+		public Config setInitialLimit(int initialLimit) {
+			this.initialLimit = initialLimit;
+			return this;
+		}
+
+		public int getMinLimit() {
+			return minLimit;
+		}
+
+		public Config setMinLimit(int minLimit) {
+			this.minLimit = minLimit;
+			return this;
+		}
+
+		public int getMaxLimit() {
+			return maxLimit;
+		}
+
+		public Config setMaxLimit(int maxLimit) {
+			this.maxLimit = maxLimit;
+			return this;
+		}
+
+		public double getRttTolerance() {
+			return rttTolerance;
+		}
+
+		public Config setRttTolerance(double rttTolerance) {
+			this.rttTolerance = rttTolerance;
+			return this;
+		}
+
+		public double getSmoothing() {
+			return smoothing;
+		}
+
+		public Config setSmoothing(double smoothing) {
+			this.smoothing = smoothing;
+			return this;
+		}
+
+		public int getLongWindow() {
+			return longWindow;
+		}
+
+		public Config setLongWindow(int longWindow) {
+			this.longWindow = longWindow;
+			return this;
+		}
+
+		public double getBackoffRatio() {
+			return backoffRatio;
+		}
+
+		public Config setBackoffRatio(double backoffRatio) {
+			this.backoffRatio = backoffRatio;
+			return this;
+		}
+	}
+
+	/**
+	 * Gradient limit for a single route. Admission is a CAS on the in-flight
+	 * counter; the limit itself is only recomputed when a request finishes.
+	 */
+	private static class AdaptiveLimit {
+		private final Config config;
+		private final Counter rejected;
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private volatile double limit;
+		private double longRttNanos;
+
+		AdaptiveLimit(Config config, Counter rejected) {
+			this.config = config;
+			this.rejected = rejected;
+			this.limit = config.getInitialLimit();
+		}
+
+		double getLimit() {
+			return limit;
+		}
+
+		double getInFlight() {
+			return inFlight.get();
+		}
+
+		boolean tryAcquire() {
+			while (true) {
+				int current = inFlight.get();
+				if (current >= (int) limit) {
+					return false;
+				}
+				if (inFlight.compareAndSet(current, current + 1)) {
+					return true;
+				}
+			}
+		}
+
+		void release(long rttNanos, SignalType signal, Throwable fallbackCause) {
+			int inFlightAtCompletion = inFlight.getAndDecrement();
+			if (fallbackCause != null) {
+				// Answered by the circuit breaker fallback; an open circuit says nothing about the upstream
+				if (!(fallbackCause instanceof CallNotPermittedException)) {
+					onDrop();
+				}
+			} else if (signal == SignalType.ON_COMPLETE) {
+				onSample(rttNanos, inFlightAtCompletion);
+			} else if (signal == SignalType.ON_ERROR) {
+				onDrop();
+			}
+			// Cancellations say nothing about upstream latency
+		}
+
+		private synchronized void onDrop() {
+			limit = Math.max(config.getMinLimit(), limit * config.getBackoffRatio());
+		}
+
+		private synchronized void onSample(long rttNanos, int inFlightAtCompletion) {
+			if (longRttNanos == 0) {
+				longRttNanos = rttNanos;
+			} else {
+				longRttNanos += (rttNanos - longRttNanos) * 2.0 / (config.getLongWindow() + 1);
+			}
+			// Let the long-term average recover quickly after a latency spike
+			if (longRttNanos > 2.0 * rttNanos) {
+				longRttNanos *= 0.95;
+			}
+
+			// The route is not using its limit, so latency says nothing about it
+			if (inFlightAtCompletion < limit / 2) {
+				return;
+			}
+
+			double gradient = Math.max(0.5, Math.min(1.0, config.getRttTolerance() * longRttNanos / rttNanos));
+			double queueSize = Math.sqrt(limit);
+			double newLimit = limit * gradient + queueSize;
+			newLimit = limit * (1 - config.getSmoothing()) + newLimit * config.getSmoothing();
+			limit = Math.max(config.getMinLimit(), Math.min(config.getMaxLimit(), newLimit));
+		}
+	}
+}
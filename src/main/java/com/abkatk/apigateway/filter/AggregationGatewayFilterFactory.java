@@ -0,0 +1,359 @@
+package com.abkatk.apigateway.filter;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.setAlreadyRouted;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * GatewayFilterFactory for aggregation routes: one client request fans out in
+ * parallel to several {@code lb://} services ("legs") and the results are
+ * merged into a single JSON object keyed by leg name, e.g.
+ * {@code {"profile": {...}, "orders": [...]}}. Members are streamed to the
+ * client in the order the legs complete, so a slow leg does not hold back the
+ * others.
+ *
+ * Each leg has its own timeout. A leg that fails, times out, answers with a
+ * non-2xx status or sends a JSON content type with a body that is not valid
+ * JSON appears as {@code {"error": "..."}} instead of failing the
+ * whole response. Legs marked as cached are served from and stored in the
+ * {@code apiResponses} cache, keyed by their {@code lb://} URI; only mark legs
+ * whose response does not depend on the caller.
+ *
+ * The filter answers the request itself, so the route's URI is never called
+ * ({@code no://op} by convention). Aggregation routes are declared as
+ * {@code spring.cloud.gateway.routes} with an {@code Aggregation} filter; see
+ * the README.
+ */
+@Component
+public class AggregationGatewayFilterFactory
+		extends AbstractGatewayFilterFactory<AggregationGatewayFilterFactory.Config> {
+
+	private static final String CACHE_NAME = "apiResponses"; // Must match the cache name in CacheConfig
+	/** Upper bound for a buffered leg body. */
+	private static final int MAX_BUFFERED_RESPONSE_BYTES = 2 * 1024 * 1024;
+
+	private static final byte[] OPEN = { '{' };
+	private static final byte[] CLOSE = { '}' };
+	private static final byte[] COMMA = { ',' };
+	private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+	private final ServiceInstanceChooser instanceChooser;
+	private final WebClient webClient;
+	private final CacheManager cacheManager;
+	private final ResponseCacheIndex cacheIndex;
+	private final ObjectMapper objectMapper;
+	private final ObjectReader strictReader;
+
+	public AggregationGatewayFilterFactory(ServiceInstanceChooser instanceChooser, WebClient.Builder webClientBuilder,
+			CacheManager cacheManager, ResponseCacheIndex cacheIndex, ObjectMapper objectMapper) {
+		super(Config.class);
+		this.instanceChooser = instanceChooser;
+		this.webClient = webClientBuilder
+				.codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(MAX_BUFFERED_RESPONSE_BYTES)).build();
+		this.cacheManager = cacheManager;
+		this.cacheIndex = cacheIndex;
+		this.objectMapper = objectMapper;
+		this.strictReader = objectMapper.reader().with(DeserializationFeature.FAIL_ON_TRAILING_TOKENS);
+	}
+
+	/**
+	 * Applies the aggregation to the gateway request.
+	 *
+	 * @param config The legs of this aggregation route.
+	 * @return A GatewayFilter instance.
+	 */
+	@Override
+	public GatewayFilter apply(Config config) {
+		List<Leg> legs = config.getLegs();
+		return (exchange, chain) -> {
+			// This filter produces the response itself
+			setAlreadyRouted(exchange);
+			String authorization = exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+
+			ServerHttpResponse response = exchange.getResponse();
+			DataBufferFactory bufferFactory = response.bufferFactory();
+			response.setStatusCode(HttpStatus.OK);
+			response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+
+			// All legs run concurrently; each member is flushed as soon as its leg completes
+			Flux<Flux<DataBuffer>> members = Flux.fromIterable(legs)
+					.flatMap(leg -> member(leg, authorization), Math.max(1, legs.size()))
+					.index()
+					.map(indexed -> indexed.getT1() == 0
+							? Flux.just(bufferFactory.wrap(indexed.getT2()))
+							: Flux.just(bufferFactory.wrap(COMMA), bufferFactory.wrap(indexed.getT2())));
+			return response.writeAndFlushWith(Flux.concat(
+					Mono.just(Flux.just(bufferFactory.wrap(OPEN))),
+					members,
+					Mono.just(Flux.just(bufferFactory.wrap(CLOSE)))));
+		};
+	}
+
+	/**
+	 * Calls one leg and encodes it as a JSON object member, {@code "name":value}.
+	 * Never signals an error.
+	 */
+	private Mono<byte[]> member(Leg leg, String authorization) {
+		return legValue(leg, authorization)
+				.timeout(leg.getTimeout())
+				.onErrorResume(e -> {
+					System.err.println("Aggregation leg '" + leg.getName() + "' failed: " + e.getMessage());
+					return Mono.just(errorValue(leg, e));
+				})
+				.map(value -> {
+					byte[] name = toJson(leg.getName());
+					byte[] member = new byte[name.length + 1 + value.length];
+					System.arraycopy(name, 0, member, 0, name.length);
+					member[name.length] = ':';
+					System.arraycopy(value, 0, member, name.length + 1, value.length);
+					return member;
+				});
+	}
+
+	/**
+	 * Returns the leg's response body as a JSON value, from the cache if allowed.
+	 */
+	private Mono<byte[]> legValue(Leg leg, String authorization) {
+		Cache cache = leg.isCached() ? cacheManager.getCache(CACHE_NAME) : null;
+		String cacheKey = leg.getUri().toString();
+		if (cache != null) {
+			CachingGatewayFilterFactory.CachedResponse cached = cache.get(cacheKey,
+					CachingGatewayFilterFactory.CachedResponse.class);
+			if (cached != null) {
+				return Mono.fromCallable(() -> toJsonValue(cached.getFirstHeader(HttpHeaders.CONTENT_TYPE), cached.getBody()));
+			}
+		}
+
+		return instanceChooser.choose(leg.getUri().getHost())
+				.flatMap(instance -> webClient.get()
+						.uri(ServiceInstanceChooser.reconstructUri(instance, leg.getUri()))
+						.headers(headers -> {
+							headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+							if (authorization != null) {
+								headers.set(HttpHeaders.AUTHORIZATION, authorization);
+							}
+						})
+						.exchangeToMono(clientResponse -> clientResponse.toEntity(byte[].class)))
+				.flatMap(entity -> {
+					HttpStatus status = HttpStatus.resolve(entity.getStatusCode().value());
+					if (status == null || !status.is2xxSuccessful()) {
+						return Mono.error(new IllegalStateException(
+								"Upstream responded " + entity.getStatusCode().value()));
+					}
+					byte[] body = entity.getBody() != null ? entity.getBody() : new byte[0];
+					// Validated before caching so a broken body is not served again
+					byte[] value = toJsonValue(contentType(entity), body);
+					if (cache != null) {
+						CachingGatewayFilterFactory.CachedResponse cachedResponse =
+								new CachingGatewayFilterFactory.CachedResponse(status, entity.getHeaders(), body);
+						cacheIndex.put(cache, cacheKey, cachedResponse);
+					}
+					return Mono.just(value);
+				});
+	}
+
+	private static String contentType(ResponseEntity<byte[]> entity) {
+		MediaType contentType = entity.getHeaders().getContentType();
+		return contentType != null ? contentType.toString() : null;
+	}
+
+	/**
+	 * Embeds JSON bodies as they are; any other body becomes a JSON string and an
+	 * empty body becomes null. JSON bodies are parsed first, so an HTML error page
+	 * or a truncated document cannot corrupt the merged object.
+	 *
+	 * @throws IllegalStateException if a JSON body is not exactly one valid value.
+	 */
+	private byte[] toJsonValue(String contentType, byte[] body) {
+		if (body.length == 0) {
+			return NULL;
+		}
+		if (isJson(contentType)) {
+			if (!isValidJson(body)) {
+				throw new IllegalStateException("Invalid JSON from upstream");
+			}
+			return body;
+		}
+		return toJson(new String(body, StandardCharsets.UTF_8));
+	}
+
+	private boolean isValidJson(byte[] body) {
+		try {
+			JsonNode node = strictReader.readTree(body);
+			return node != null && !node.isMissingNode();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static boolean isJson(String contentType) {
+		if (contentType == null) {
+			return false;
+		}
+		try {
+			MediaType mediaType = MediaType.parseMediaType(contentType);
+			return MediaType.APPLICATION_JSON.isCompatibleWith(mediaType) || mediaType.getSubtype().endsWith("+json");
+		} catch (InvalidMediaTypeException e) {
+			return false;
+		}
+	}
+
+	private byte[] errorValue(Leg leg, Throwable e) {
+		String message = e instanceof TimeoutException
+				? "Timed out after " + leg.getTimeout().toMillis() + "ms"
+				: e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+		return toJson(Map.of("error", message));
+	}
+
+	private byte[] toJson(Object value) {
+		try {
+			return objectMapper.writeValueAsBytes(value);
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException("Failed to encode aggregation response", e);
+		}
+	}
+
+	/**
+	 * Configuration class for the AggregationGatewayFilterFactory: the legs of one
+	 * aggregation route, in declaration order. Routes declared in
+	 * {@code spring.cloud.gateway.routes} bind it through {@link #setLegs}, e.g.
+	 * {@code args.legs[0].name}, {@code .uri}, {@code .timeout} and {@code .cached}.
+	 */
+	public static class Config {
+		private final List<Leg> legs = new ArrayList<>();
+
+		public List<Leg> getLegs() {
+			return legs;
+		}
+
+		/**
+		 * Replaces the legs, validating each like {@link #addLeg}.
+		 */
+		public Config setLegs(List<Leg> legs) {
+			// The binder may pass the list returned by getLegs() back in
+			List<Leg> replacement = new ArrayList<>(legs);
+			this.legs.clear();
+			for (Leg leg : replacement) {
+				add(leg);
+			}
+			return this;
+		}
+
+		/**
+		 * Adds a leg that is not cached.
+		 */
+		public Config addLeg(String name, String uri, Duration timeout) {
+			return addLeg(name, uri, timeout, false);
+		}
+
+		/**
+		 * Adds a leg.
+		 *
+		 * @param name    The key of the leg's result in the merged JSON object.
+		 * @param uri     An {@code lb://service/path} URI, called with GET.
+		 * @param timeout How long to wait for the leg before reporting it as failed.
+		 * @param cached  Whether the leg may be served from the response cache.
+		 */
+		public Config addLeg(String name, String uri, Duration timeout, boolean cached) {
+			return add(new Leg().setName(name).setUri(URI.create(uri)).setTimeout(timeout).setCached(cached));
+		}
+
+		private Config add(Leg leg) {
+			URI legUri = leg.getUri();
+			if (leg.getName() == null || leg.getName().isEmpty()) {
+				throw new IllegalArgumentException("Aggregation legs need a name");
+			}
+			if (legUri == null || !"lb".equals(legUri.getScheme()) || legUri.getHost() == null) {
+				throw new IllegalArgumentException("Aggregation legs must be lb:// URIs, got '" + legUri + "'");
+			}
+			if (leg.getTimeout() == null || leg.getTimeout().isNegative() || leg.getTimeout().isZero()) {
+				throw new IllegalArgumentException("Aggregation leg '" + leg.getName() + "' needs a positive timeout");
+			}
+			for (Leg existing : legs) {
+				if (existing.getName().equals(leg.getName())) {
+					throw new IllegalArgumentException("Duplicate aggregation leg '" + leg.getName() + "'");
+				}
+			}
+			legs.add(leg);
+			return this;
+		}
+	}
+
+	/**
+	 * One upstream call of an aggregation route.
+	 */
+	public static class Leg {
+		private String name;
+		private URI uri;
+		private Duration timeout;
+		private boolean cached;
+
+		public String getName() {
+			return name;
+		}
+
+		public Leg setName(String name) {
+			this.name = name;
+			return this;
+		}
+
+		public URI getUri() {
+			return uri;
+		}
+
+		public Leg setUri(URI uri) {
+			this.uri = uri;
+			return this;
+		}
+
+		public Duration getTimeout() {
+			return timeout;
+		}
+
+		public Leg setTimeout(Duration timeout) {
+			this.timeout = timeout;
+			return this;
+		}
+
+		public boolean isCached() {
+			return cached;
+		}
+
+		public Leg setCached(boolean cached) {
+			this.cached = cached;
+			return this;
+		}
+	}
+}
@@ -0,0 +1,391 @@
+package com.abkatk.apigateway.filter;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_CONN_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_LOADBALANCER_RESPONSE_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+
+import reactor.core.publisher.Mono;
+import reactor.netty.Connection;
+import reactor.util.retry.Retry;
+
+/**
+ * GatewayFilterFactory that retries idempotent requests after connection
+ * errors and retryable statuses (by default 502/503/504), with jittered
+ * exponential backoff. Each retry is sent to a different instance than the
+ * attempt before it, chosen with {@link ServiceInstanceChooser}; only when the
+ * service has no other instance does it go back through the load balancer.
+ *
+ * Retries are limited by a token budget: every successful response deposits a
+ * fraction of a token and every retry withdraws a whole one, so retries stay a
+ * fixed fraction of successful traffic and a failing upstream is not hit with
+ * a retry storm. A retry is also refused when the request's deadline would not
+ * leave it enough time.
+ *
+ * Request bodies are replayed from a buffer captured with
+ * {@link ServerWebExchangeUtils#cacheRequestBody}, and only when a retry could
+ * be afforded and the declared Content-Length fits the configured maximum;
+ * other requests with a body are passed through without retries, so most
+ * requests pay no replay overhead.
+ *
+ * Must be placed inside the circuit breaker and after the deadline filter, so
+ * retried attempts count as one call and share one deadline.
+ */
+@Component
+public class BudgetedRetryGatewayFilterFactory
+		extends AbstractGatewayFilterFactory<BudgetedRetryGatewayFilterFactory.Config> {
+
+	private static final Set<HttpMethod> IDEMPOTENT_METHODS = Set.of(HttpMethod.GET, HttpMethod.HEAD,
+			HttpMethod.OPTIONS, HttpMethod.PUT, HttpMethod.DELETE, HttpMethod.TRACE);
+
+	private final ServiceInstanceChooser instanceChooser;
+
+	public BudgetedRetryGatewayFilterFactory(ServiceInstanceChooser instanceChooser) {
+		super(Config.class);
+		this.instanceChooser = instanceChooser;
+	}
+
+	/**
+	 * Applies the retry logic to the gateway request. Each filter instance keeps
+	 * its own retry budget.
+	 *
+	 * @param config The configuration for this filter instance.
+	 * @return A GatewayFilter instance.
+	 */
+	@Override
+	public GatewayFilter apply(Config config) {
+		RetryBudget budget = new RetryBudget(config);
+		return (exchange, chain) -> {
+			ServerHttpRequest request = exchange.getRequest();
+			if (!config.isEnabled() || !IDEMPOTENT_METHODS.contains(request.getMethod())) {
+				return chain.filter(exchange);
+			}
+
+			HttpHeaders headers = request.getHeaders();
+			long contentLength = headers.getContentLength();
+			if (contentLength <= 0 && !headers.containsKey(HttpHeaders.TRANSFER_ENCODING)) {
+				return withRetries(exchange, chain, config, budget);
+			}
+			// Bodies are only captured when they are small enough and a retry could be afforded
+			if (contentLength < 0 || contentLength > config.getMaxBodyBytes() || !budget.canWithdraw()) {
+				return chain.filter(exchange).doOnSuccess(v -> recordOutcome(exchange, config, budget));
+			}
+			return ServerWebExchangeUtils.cacheRequestBody(exchange,
+					cachedRequest -> withRetries(exchange.mutate().request(cachedRequest).build(), chain, config,
+							budget));
+		};
+	}
+
+	private Mono<Void> withRetries(ServerWebExchange exchange, GatewayFilterChain chain, Config config,
+			RetryBudget budget) {
+		RequestDeadline deadline = RequestDeadline.from(exchange);
+		Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+		AtomicInteger attempts = new AtomicInteger();
+		return Mono.<Void>defer(() -> {
+			ServerWebExchange attemptExchange = exchange;
+			Mono<Void> steered = Mono.empty();
+			if (attempts.getAndIncrement() > 0) {
+				prepareRetry(exchange);
+				if (deadline != null) {
+					// Tell the upstream how much of the budget is left for this attempt
+					attemptExchange = exchange.mutate().request(r -> r.headers(deadline::writeTo)).build();
+				}
+				steered = steerAwayFromLastInstance(exchange, route);
+			}
+			ServerWebExchange routedExchange = attemptExchange;
+			// The routing filter has set the status by the time the chain completes;
+			// the body is only written afterwards, so the attempt can still be discarded.
+			return steered.then(Mono.defer(() -> chain.filter(routedExchange))).then(Mono.<Void>defer(() -> {
+				HttpStatusCode status = exchange.getResponse().getStatusCode();
+				if (status != null && config.getStatuses().contains(status.value())
+						&& !exchange.getResponse().isCommitted()) {
+					return Mono.error(new RetryableStatusException(status));
+				}
+				budget.deposit();
+				return Mono.empty();
+			}));
+		}).retryWhen(Retry.backoff(config.getRetries(), config.getFirstBackoff())
+				.maxBackoff(config.getMaxBackoff())
+				.jitter(config.getJitter())
+				.filter(e -> isRetryable(e, exchange) && hasTimeForRetry(config, deadline, attempts.get())
+						&& budget.tryWithdraw())
+				.doBeforeRetry(signal -> System.out.println("Retrying " + exchange.getRequest().getMethod() + " "
+						+ exchange.getRequest().getURI() + " after: " + signal.failure().getMessage()))
+				.onRetryExhaustedThrow((spec, signal) -> signal.failure()))
+				// No retry left: the last upstream response is written as usual
+				.onErrorResume(RetryableStatusException.class, e -> Mono.empty())
+				.doFinally(signal -> {
+					if (route != null) {
+						exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, route);
+					}
+				});
+	}
+
+	/**
+	 * Points the next attempt of an {@code lb://} route at an instance other than
+	 * the one the previous attempt went to. The route attribute is swapped for a
+	 * copy whose URI is that instance, so the load balancer filter leaves the
+	 * attempt alone; without another instance the original route is used and the
+	 * load balancer chooses as usual.
+	 */
+	private Mono<Void> steerAwayFromLastInstance(ServerWebExchange exchange, Route route) {
+		Response<ServiceInstance> lastChoice = exchange.getAttribute(GATEWAY_LOADBALANCER_RESPONSE_ATTR);
+		if (route == null) {
+			return Mono.empty();
+		}
+		exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, route);
+		if (!"lb".equals(route.getUri().getScheme()) || lastChoice == null || !lastChoice.hasServer()) {
+			return Mono.empty();
+		}
+		return instanceChooser.chooseOther(route.getUri().getHost(), lastChoice.getServer())
+				.doOnNext(instance -> {
+					URI instanceUri = ServiceInstanceChooser.reconstructUri(instance, route.getUri());
+					exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, Route.async()
+							.id(route.getId())
+							.uri(instanceUri)
+							.order(route.getOrder())
+							.asyncPredicate(route.getPredicate())
+							.filters(route.getFilters())
+							.metadata(route.getMetadata())
+							.build());
+					// Read by the next retry to steer away from this instance in turn
+					exchange.getAttributes().put(GATEWAY_LOADBALANCER_RESPONSE_ATTR, new DefaultResponse(instance));
+				})
+				// Falling back to the load balancer is better than failing the retry
+				.onErrorResume(e -> Mono.empty())
+				.then();
+	}
+
+	/**
+	 * Deposits into the budget for a request that was passed through without retries.
+	 */
+	private static void recordOutcome(ServerWebExchange exchange, Config config, RetryBudget budget) {
+		HttpStatusCode status = exchange.getResponse().getStatusCode();
+		if (status == null || !config.getStatuses().contains(status.value())) {
+			budget.deposit();
+		}
+	}
+
+	/**
+	 * Clears the routing state of the previous attempt so the request is routed
+	 * and load balanced again. The previous response body is never written; it is
+	 * read and dropped in the background, which returns the connection to the
+	 * pool. Disposing the connection instead races Reactor Netty's own cleanup of
+	 * the response and fails with "channel not registered to an event loop".
+	 */
+	private static void prepareRetry(ServerWebExchange exchange) {
+		ServerWebExchangeUtils.reset(exchange);
+		Connection connection = exchange.getAttribute(CLIENT_RESPONSE_CONN_ATTR);
+		if (connection != null) {
+			exchange.getAttributes().remove(CLIENT_RESPONSE_CONN_ATTR);
+			connection.inbound().receive().then()
+					.onErrorResume(e -> Mono.empty())
+					.subscribe();
+		}
+	}
+
+	private static boolean isRetryable(Throwable e, ServerWebExchange exchange) {
+		if (exchange.getResponse().isCommitted()) {
+			return false;
+		}
+		// Connection refused, reset and premature close are all IOExceptions
+		return e instanceof RetryableStatusException || e instanceof IOException
+				|| e.getCause() instanceof IOException;
+	}
+
+	/**
+	 * Checks that the deadline leaves room for the backoff before the next
+	 * attempt plus the minimum time an attempt needs.
+	 */
+	private static boolean hasTimeForRetry(Config config, RequestDeadline deadline, int attempts) {
+		if (deadline == null) {
+			return true;
+		}
+		long backoffNanos = config.getFirstBackoff().toNanos() << Math.min(attempts - 1, 20);
+		backoffNanos = Math.min(backoffNanos, config.getMaxBackoff().toNanos());
+		long worstCaseBackoffNanos = (long) (backoffNanos * (1 + config.getJitter()));
+		return deadline.hasAtLeast(config.getMinAttemptTime().plusNanos(worstCaseBackoffNanos));
+	}
+
+	/**
+	 * Configuration class for the BudgetedRetryGatewayFilterFactory.
+	 */
+	public static class Config {
+		private boolean enabled = true;
+		/** Maximum retries per request, on top of the first attempt. */
+		private int retries = 2;
+		private Set<Integer> statuses = Set.of(502, 503, 504);
+		private Duration firstBackoff = Duration.ofMillis(50);
+		private Duration maxBackoff = Duration.ofMillis(500);
+		/** Random spread of each backoff, as a fraction of it. */
+		private double jitter = 0.5;
+		/** Tokens deposited per successful response, in percent of the token a retry costs. */
+		private int budgetPercent = 20;
+		/** Cap on saved-up tokens, which is also the initial balance. */
+		private int maxBudgetTokens = 10;
+		/** Larger request bodies are not captured, and such requests are not retried. */
+		private long maxBodyBytes = 64 * 1024;
+		/** A retry is refused unless this much of the deadline is left after its backoff. */
+		private Duration minAttemptTime = Duration.ofMillis(200);
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public Config setEnabled(boolean enabled) {
+			this.enabled = enabled;
+			return this;
+		}
+
+		public int getRetries() {
+			return retries;
+		}
+
+		public Config setRetries(int retries) {
+			this.retries = retries;
+			return this;
+		}
+
+		public Set<Integer> getStatuses() {
+			return statuses;
+		}
+
+		public Config setStatuses(Set<Integer> statuses) {
+			this.statuses = statuses;
+			return this;
+		}
+
+		public Duration getFirstBackoff() {
+			return firstBackoff;
+		}
+
+		public Config setFirstBackoff(Duration firstBackoff) {
+			this.firstBackoff = firstBackoff;
+			return this;
+		}
+
+		public Duration getMaxBackoff() {
+			return maxBackoff;
+		}
+
+		public Config setMaxBackoff(Duration maxBackoff) {
+			this.maxBackoff = maxBackoff;
+			return this;
+		}
+
+		public double getJitter() {
+			return jitter;
+		}
+
+		public Config setJitter(double jitter) {
+			this.jitter = jitter;
+			return this;
+		}
+
+		public int getBudgetPercent() {
+			return budgetPercent;
+		}
+
+		public Config setBudgetPercent(int budgetPercent) {
+			this.budgetPercent = budgetPercent;
+			return this;
+		}
+
+		public int getMaxBudgetTokens() {
+			return maxBudgetTokens;
+		}
+
+		public Config setMaxBudgetTokens(int maxBudgetTokens) {
+			this.maxBudgetTokens = maxBudgetTokens;
+			return this;
+		}
+
+		public long getMaxBodyBytes() {
+			return maxBodyBytes;
+		}
+
+		public Config setMaxBodyBytes(long maxBodyBytes) {
+			this.maxBodyBytes = maxBodyBytes;
+			return this;
+		}
+
+		public Duration getMinAttemptTime() {
+			return minAttemptTime;
+		}
+
+		public Config setMinAttemptTime(Duration minAttemptTime) {
+			this.minAttemptTime = minAttemptTime;
+			return this;
+		}
+	}
+
+	/**
+	 * Token balance for one filter instance, kept in hundredths of a token so
+	 * that percentage deposits are exact.
+	 */
+	private static class RetryBudget {
+		private static final long TOKEN = 100;
+
+		private final long deposit;
+		private final long maxBalance;
+		private final AtomicLong balance;
+
+		RetryBudget(Config config) {
+			this.deposit = config.getBudgetPercent();
+			this.maxBalance = config.getMaxBudgetTokens() * TOKEN;
+			this.balance = new AtomicLong(maxBalance);
+		}
+
+		void deposit() {
+			if (balance.get() < maxBalance) {
+				balance.accumulateAndGet(deposit, (current, amount) -> Math.min(maxBalance, current + amount));
+			}
+		}
+
+		boolean canWithdraw() {
+			return balance.get() >= TOKEN;
+		}
+
+		boolean tryWithdraw() {
+			long current;
+			do {
+				current = balance.get();
+				if (current < TOKEN) {
+					return false;
+				}
+			} while (!balance.compareAndSet(current, current - TOKEN));
+			return true;
+		}
+	}
+
+	/**
+	 * Signals an upstream response whose status should be retried. The response
+	 * is still unwritten, so it can be discarded.
+	 */
+	private static class RetryableStatusException extends RuntimeException {
+		RetryableStatusException(HttpStatusCode status) {
+			super("Upstream responded " + status.value(), null, false, false);
+		}
+	}
+}
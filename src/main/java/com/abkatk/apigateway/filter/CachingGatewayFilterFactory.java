@@ -2,39 +2,74 @@ package com.abkatk.apigateway.filter;
 
 import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
 import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.NettyWriteResponseFilter;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
 import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpStatusCode; // Import HttpStatusCode
+import org.springframework.http.MediaType;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
 import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Custom GatewayFilterFactory for caching API responses. This filter intercepts
  * requests, checks if a cached response exists, serves it if available, or
  * caches the new response if not. It's configured to work with Spring's
  * CacheManager.
+ *
+ * Compressible bodies are served gzip-encoded to clients that accept it. The
+ * gzip variant is built once per entry, on the first hit that asks for it (off
+ * the event loop for large bodies), and counts toward the cache's weight.
+ *
+ * Selected error responses (by default 404/410 and 502/503/504) are cached for
+ * a few seconds in a separate {@code negativeResponses} cache, honoring
+ * {@code Retry-After}, so a burst of requests for a missing resource or a
+ * struggling upstream is answered by the gateway. The separate cache has its
+ * own memory budget, so negative entries never evict good ones.
  */
 @Component
 public class CachingGatewayFilterFactory extends AbstractGatewayFilterFactory<CachingGatewayFilterFactory.Config> {
 
 	private static final String CACHE_NAME = "apiResponses"; // Must match the cache name in CacheConfig
+	private static final String NEGATIVE_CACHE_NAME = "negativeResponses"; // Registered separately in CacheConfig
+	private static final String GZIP = "gzip";
+	/** Gzip variants of bodies at least this large are built off the event loop. */
+	private static final int OFF_LOOP_COMPRESS_BYTES = 64 * 1024;
 	private final CacheManager cacheManager;
+	private final ResponseCacheSnapshot cacheSnapshot;
+	private final ResponseCacheIndex cacheIndex;
 
-	public CachingGatewayFilterFactory(CacheManager cacheManager) {
+	public CachingGatewayFilterFactory(CacheManager cacheManager, ResponseCacheSnapshot cacheSnapshot,
+			ResponseCacheIndex cacheIndex) {
 		super(Config.class);
 		this.cacheManager = cacheManager;
+		this.cacheSnapshot = cacheSnapshot;
+		this.cacheIndex = cacheIndex;
 	}
 
 	/**
@@ -45,7 +80,9 @@ public class CachingGatewayFilterFactory extends AbstractGatewayFilterFactory<Ca
 	 */
 	@Override
 	public GatewayFilter apply(Config config) {
-		return (exchange, chain) -> {
+		// Must run before NettyWriteResponseFilter so that the response decorator
+		// below is the one the upstream body is written through.
+		return new OrderedGatewayFilter((exchange, chain) -> {
 			ServerHttpRequest request = exchange.getRequest();
 			ServerHttpResponse originalResponse = exchange.getResponse();
 
@@ -69,15 +106,26 @@ public class CachingGatewayFilterFactory extends AbstractGatewayFilterFactory<Ca
 					CachedResponse cachedResponse = (CachedResponse) cachedResponseWrapper.get();
 					if (cachedResponse != null) {
 						System.out.println("Cache hit for: " + cacheKey);
-						// Set status and headers from cached response
-						originalResponse.setStatusCode(cachedResponse.getStatus());
-						cachedResponse.getHeaders()
-								.forEach((name, values) -> originalResponse.getHeaders().put(name, values));
-
-						// Write the cached body to the response
-						DataBuffer buffer = originalResponse.bufferFactory().wrap(cachedResponse.getBody());
-						return originalResponse.writeWith(Mono.just(buffer));
+						return writeCachedResponse(request, originalResponse, cache, cacheKey, cachedResponse);
 					}
+				} else {
+					// Entries from the last snapshot are faulted in on their first request after a restart
+					CachedResponse restoredResponse = cacheSnapshot.restore(cacheKey);
+					if (restoredResponse != null) {
+						System.out.println("Restored from cache snapshot: " + cacheKey);
+						cacheIndex.put(cache, cacheKey, restoredResponse);
+						return writeCachedResponse(request, originalResponse, cache, cacheKey, restoredResponse);
+					}
+				}
+			}
+
+			// Recent error responses are replayed until their short TTL runs out
+			Cache negativeCache = cacheManager.getCache(NEGATIVE_CACHE_NAME);
+			if (negativeCache != null) {
+				NegativeCachedResponse negativeResponse = negativeCache.get(cacheKey, NegativeCachedResponse.class);
+				if (negativeResponse != null) {
+					System.out.println("Negative cache hit for: " + cacheKey);
+					return writeNegativeResponse(originalResponse, negativeResponse.getResponse());
 				}
 			}
 
@@ -91,41 +139,45 @@ public class CachingGatewayFilterFactory extends AbstractGatewayFilterFactory<Ca
 				public Mono<Void> writeWith(org.reactivestreams.Publisher<? extends DataBuffer> body) {
 					// Get the HttpStatusCode from the original response.
 					HttpStatusCode statusCode = originalResponse.getStatusCode();
+					HttpStatus status = statusCode != null ? HttpStatus.resolve(statusCode.value()) : null;
+					long negativeTtlNanos = status != null && !status.is2xxSuccessful() && negativeCache != null
+							? negativeTtlNanos(config, exchange, status, getHeaders())
+							: 0;
 
-					if (statusCode != null && statusCode.is2xxSuccessful()) {
-						return DataBufferUtils.join(Flux.from(body)).flatMap(dataBuffer -> {
-							// Retain the data buffer immediately after joining.
-							// This ensures it's available for reading and for passing downstream.
-							DataBuffer retainedBuffer = DataBufferUtils.retain(dataBuffer);
-							// Immediately release the original 'joined' dataBuffer
-							// as we are now working with the retained copy.
-							DataBufferUtils.release(dataBuffer);
-
-							try {
-								// It's crucial that 'retainedBuffer' is valid here.
-								// If you still see an error on this line, ensure 'retain' worked correctly.
-								byte[] responseBodyBytes = new byte[retainedBuffer.readableByteCount()];
-								retainedBuffer.read(responseBodyBytes);
-
-								CachedResponse newCachedResponse = new CachedResponse((HttpStatus) statusCode,
-										getHeaders(), responseBodyBytes);
-								if (cache != null) {
-									cache.put(cacheKey, newCachedResponse);
-									System.out.println("Cached response for: " + cacheKey);
-								}
-
-								// Return the retained buffer for the actual response,
-								// and ensure it's released once the response is written to the client.
-								return originalResponse.writeWith(Mono.just(retainedBuffer))
-										.doFinally(signalType -> DataBufferUtils.release(retainedBuffer));
-							} catch (Exception e) {
-								System.err.println("Error processing response body for caching: " + e.getMessage());
-								// If an error occurs, ensure the retained buffer is released.
-								DataBufferUtils.release(retainedBuffer);
-								// Propagate the error so the GlobalErrorWebExceptionHandler can handle it.
-								return Mono.error(new RuntimeException("Failed to cache API response", e));
-							}
-						})
+					if (status != null && (status.is2xxSuccessful() || negativeTtlNanos > 0)) {
+						return DataBufferUtils.join(Flux.from(body))
+								// A body-less response is cached and written as an empty body
+								.defaultIfEmpty(originalResponse.bufferFactory().wrap(new byte[0]))
+								.flatMap(dataBuffer -> {
+									// Copy the body out and release the joined buffer; the client is
+									// sent a fresh buffer wrapping the copy, which the write releases.
+									byte[] responseBodyBytes = new byte[dataBuffer.readableByteCount()];
+									dataBuffer.read(responseBodyBytes);
+									DataBufferUtils.release(dataBuffer);
+
+									try {
+										CachedResponse newCachedResponse = new CachedResponse(status, getHeaders(),
+												responseBodyBytes);
+										if (negativeTtlNanos > 0) {
+											negativeCache.put(cacheKey, new NegativeCachedResponse(newCachedResponse,
+													negativeTtlNanos));
+											System.out.println("Negatively cached " + status.value() + " for: " + cacheKey);
+										} else if (cache != null) {
+											cacheIndex.put(cache, cacheKey, newCachedResponse);
+											System.out.println("Cached response for: " + cacheKey);
+										}
+										if (negativeTtlNanos == 0 && newCachedResponse.isCompressible()) {
+											// Later hits for this URI may be served gzip-encoded
+											addVaryAcceptEncoding(originalResponse.getHeaders());
+										}
+									} catch (Exception e) {
+										// The client still gets the upstream response; it is just not cached
+										System.err.println("Error caching response body for " + cacheKey + ": "
+												+ e.getMessage());
+									}
+									return originalResponse.writeWith(
+											Mono.just(originalResponse.bufferFactory().wrap(responseBodyBytes)));
+								})
 								// This onErrorResume handles errors that occur during the DataBufferUtils.join
 								// operation itself.
 								.onErrorResume(e -> {
@@ -136,7 +188,7 @@ public class CachingGatewayFilterFactory extends AbstractGatewayFilterFactory<Ca
 									return Mono.error(new RuntimeException("Error capturing response body", e));
 								});
 					} else {
-						// If not successful, just pass through the original body without caching
+						// If not successful or not negatively cacheable, just pass through the original body without caching
 						return originalResponse.writeWith(body);
 					}
 				}
@@ -150,46 +202,436 @@ public class CachingGatewayFilterFactory extends AbstractGatewayFilterFactory<Ca
 
 			// Continue the filter chain with the decorated response
 			return chain.filter(exchange.mutate().response(decoratedResponse).build());
-		};
+		}, NettyWriteResponseFilter.WRITE_RESPONSE_FILTER_ORDER - 1);
+	}
+
+	/**
+	 * Writes a cached response, picking the body variant the client accepts.
+	 */
+	private static Mono<Void> writeCachedResponse(ServerHttpRequest request, ServerHttpResponse response, Cache cache,
+			String cacheKey, CachedResponse cachedResponse) {
+		// Set status and headers from cached response
+		response.setStatusCode(cachedResponse.getStatus());
+		cachedResponse.writeHeaders(response);
+
+		if (cachedResponse.isCompressible()) {
+			addVaryAcceptEncoding(response.getHeaders());
+			if (acceptsGzip(request.getHeaders())) {
+				if (cachedResponse.hasGzipBody() || cachedResponse.getBody().length < OFF_LOOP_COMPRESS_BYTES) {
+					return writeBody(response, gzipVariant(response, cache, cacheKey, cachedResponse));
+				}
+				// Compressing a large body would hold up every other request on this event loop
+				return Mono.fromCallable(() -> gzipVariant(response, cache, cacheKey, cachedResponse))
+						.subscribeOn(Schedulers.boundedElastic())
+						.flatMap(body -> writeBody(response, body));
+			}
+		}
+		return writeBody(response, cachedResponse.getBody());
+	}
+
+	/**
+	 * Returns the gzip variant of a cached body, building it if needed, or the raw
+	 * body if compression does not make it smaller.
+	 */
+	private static byte[] gzipVariant(ServerHttpResponse response, Cache cache, String cacheKey,
+			CachedResponse cachedResponse) {
+		boolean built = !cachedResponse.hasGzipBody();
+		byte[] gzipBody = cachedResponse.getGzipBody();
+		if (built) {
+			reweigh(cache, cacheKey, cachedResponse);
+		}
+		if (gzipBody == null) {
+			return cachedResponse.getBody();
+		}
+		response.getHeaders().set(HttpHeaders.CONTENT_ENCODING, GZIP);
+		return gzipBody;
+	}
+
+	/**
+	 * Has the cache re-weigh an entry that gained a gzip variant. The entry is only
+	 * replaced by itself if it is still cached, so one that was invalidated or
+	 * evicted meanwhile does not come back without its index entries.
+	 */
+	private static void reweigh(Cache cache, String cacheKey, CachedResponse cachedResponse) {
+		if (cache instanceof CaffeineCache caffeineCache) {
+			caffeineCache.getNativeCache().asMap().replace(cacheKey, cachedResponse, cachedResponse);
+		}
+	}
+
+	private static Mono<Void> writeBody(ServerHttpResponse response, byte[] body) {
+		response.getHeaders().setContentLength(body.length);
+		return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+	}
+
+	/**
+	 * Writes a negatively cached error response as stored; error bodies are small
+	 * and not worth compressing.
+	 */
+	private static Mono<Void> writeNegativeResponse(ServerHttpResponse response, CachedResponse cachedResponse) {
+		response.setStatusCode(cachedResponse.getStatus());
+		cachedResponse.writeHeaders(response);
+		return writeBody(response, cachedResponse.getBody());
 	}
 
 	/**
-	 * Configuration class for the CachingGatewayFilterFactory. Currently empty, but
-	 * can be extended to add filter-specific properties.
+	 * Returns how long an error response may be negatively cached, or 0 if it
+	 * must not be. A {@code Retry-After} from the upstream replaces the
+	 * status-class TTL; either way the result is capped at the configured maximum.
+	 */
+	private static long negativeTtlNanos(Config config, ServerWebExchange exchange, HttpStatus status,
+			HttpHeaders headers) {
+		// Circuit breaker fallbacks are produced by the gateway, not the upstream
+		if (exchange.getAttribute(ServerWebExchangeUtils.CIRCUITBREAKER_EXECUTION_EXCEPTION_ATTR) != null) {
+			return 0;
+		}
+		Duration ttl;
+		if (config.getClientErrorStatuses().contains(status.value())) {
+			ttl = config.getClientErrorTtl();
+		} else if (config.getServerErrorStatuses().contains(status.value())) {
+			ttl = config.getServerErrorTtl();
+		} else {
+			return 0;
+		}
+		if (ttl.isZero() || ttl.isNegative()) {
+			return 0;
+		}
+		Duration retryAfter = parseRetryAfter(headers);
+		if (retryAfter != null) {
+			ttl = retryAfter;
+		}
+		if (ttl.compareTo(config.getMaxNegativeTtl()) > 0) {
+			ttl = config.getMaxNegativeTtl();
+		}
+		return Math.max(0, ttl.toNanos());
+	}
+
+	/**
+	 * Parses {@code Retry-After} as delay-seconds or an HTTP-date.
+	 */
+	private static Duration parseRetryAfter(HttpHeaders headers) {
+		String value = headers.getFirst(HttpHeaders.RETRY_AFTER);
+		if (value == null) {
+			return null;
+		}
+		try {
+			return Duration.ofSeconds(Long.parseLong(value.trim()));
+		} catch (NumberFormatException e) {
+			try {
+				return Duration.ofMillis(headers.getFirstDate(HttpHeaders.RETRY_AFTER) - System.currentTimeMillis());
+			} catch (IllegalArgumentException dateException) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the client accepts gzip, honoring {@code q=0} exclusions.
+	 */
+	private static boolean acceptsGzip(HttpHeaders requestHeaders) {
+		for (String value : requestHeaders.getOrEmpty(HttpHeaders.ACCEPT_ENCODING)) {
+			for (String token : value.split(",")) {
+				String[] parts = token.trim().split(";");
+				String coding = parts[0].trim();
+				if (!GZIP.equalsIgnoreCase(coding) && !"*".equals(coding)) {
+					continue;
+				}
+				for (int i = 1; i < parts.length; i++) {
+					String param = parts[i].trim();
+					if (param.startsWith("q=")) {
+						try {
+							return Double.parseDouble(param.substring(2)) > 0;
+						} catch (NumberFormatException e) {
+							return false;
+						}
+					}
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void addVaryAcceptEncoding(HttpHeaders headers) {
+		for (String vary : headers.getVary()) {
+			if (HttpHeaders.ACCEPT_ENCODING.equalsIgnoreCase(vary) || "*".equals(vary)) {
+				return;
+			}
+		}
+		headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+	}
+
+	/**
+	 * Configuration class for the CachingGatewayFilterFactory. Holds the negative
+	 * caching settings; successful responses use the cache's own expiry.
 	 */
 	public static class Config {
-		// No specific configuration properties needed for this basic example
+		private Set<Integer> clientErrorStatuses = Set.of(404, 410);
+		private Duration clientErrorTtl = Duration.ofSeconds(10);
+		private Set<Integer> serverErrorStatuses = Set.of(502, 503, 504);
+		private Duration serverErrorTtl = Duration.ofSeconds(2);
+		/** Upper bound for any negative entry, including one set from Retry-After. */
+		private Duration maxNegativeTtl = Duration.ofSeconds(30);
+
+		public Set<Integer> getClientErrorStatuses() {
+			return clientErrorStatuses;
+		}
+
+		public Config setClientErrorStatuses(Set<Integer> clientErrorStatuses) {
+			this.clientErrorStatuses = clientErrorStatuses;
+			return this;
+		}
+
+		public Duration getClientErrorTtl() {
+			return clientErrorTtl;
+		}
+
+		public Config setClientErrorTtl(Duration clientErrorTtl) {
+			this.clientErrorTtl = clientErrorTtl;
+			return this;
+		}
+
+		public Set<Integer> getServerErrorStatuses() {
+			return serverErrorStatuses;
+		}
+
+		public Config setServerErrorStatuses(Set<Integer> serverErrorStatuses) {
+			this.serverErrorStatuses = serverErrorStatuses;
+			return this;
+		}
+
+		public Duration getServerErrorTtl() {
+			return serverErrorTtl;
+		}
+
+		public Config setServerErrorTtl(Duration serverErrorTtl) {
+			this.serverErrorTtl = serverErrorTtl;
+			return this;
+		}
+
+		public Duration getMaxNegativeTtl() {
+			return maxNegativeTtl;
+		}
+
+		public Config setMaxNegativeTtl(Duration maxNegativeTtl) {
+			this.maxNegativeTtl = maxNegativeTtl;
+			return this;
+		}
+	}
+
+	/**
+	 * An error response held in the negative cache together with its own TTL,
+	 * which CacheConfig's per-entry expiry reads.
+	 */
+	public static class NegativeCachedResponse {
+		private final CachedResponse response;
+		private final long ttlNanos;
+
+		public NegativeCachedResponse(CachedResponse response, long ttlNanos) {
+			this.response = response;
+			this.ttlNanos = ttlNanos;
+		}
+
+		public CachedResponse getResponse() {
+			return response;
+		}
+
+		public long getTtlNanos() {
+			return ttlNanos;
+		}
 	}
 
 	/**
 	 * A simple class to hold cached HTTP responses. In a real application, you
 	 * might want to serialize/deserialize this if using a distributed cache like
 	 * Redis.
+	 *
+	 * The gzip variant of a compressible body is built lazily and kept alongside
+	 * the raw body; {@link #weight()} accounts for both so CacheConfig can bound
+	 * the cache by memory rather than entry count.
+	 *
+	 * Headers are split into an interned {@link HeaderBlock} shared by every
+	 * entry with the same route-level headers (Content-Type, Server, CORS and so
+	 * on) and a small per-entry block for headers that usually differ between
+	 * entries. The first entry to intern a shared block is charged for it in
+	 * {@link #weight()}, so a block that turns out not to be shared is still
+	 * counted. Content-Length, hop-by-hop and rate limiter headers are not stored.
 	 */
-	private static class CachedResponse {
+	public static class CachedResponse {
+		/** Bodies smaller than this are not worth compressing. */
+		private static final int MIN_COMPRESS_BYTES = 512;
+		/** Marks an entry whose gzip variant turned out no smaller than the raw body. */
+		private static final byte[] NOT_SMALLER = new byte[0];
+		/** Rough per-entry cost of the object, header references and cache node. */
+		private static final int ENTRY_OVERHEAD_BYTES = 128;
+		/** Headers kept in the per-entry block rather than the shared one; lower case. */
+		private static final Set<String> ENTRY_HEADERS = ConcurrentHashMap.newKeySet();
+		/** Headers recomputed on write or meaningless once cached. */
+		private static final Set<String> DROPPED_HEADERS = Set.of("content-length", "transfer-encoding",
+				"connection", "keep-alive");
+		/** Set per request by the RequestRateLimiter; a cached copy would overwrite the current values. */
+		private static final String RATE_LIMIT_HEADER_PREFIX = "x-ratelimit-";
+
+		static {
+			ENTRY_HEADERS.addAll(Set.of("date", "etag", "last-modified", "expires", "age", "set-cookie",
+					"content-md5", "x-request-id", "location", "content-location", "content-disposition"));
+		}
+
 		private final HttpStatus status;
-		private final HttpHeaders headers;
+		private final HeaderBlock sharedHeaders;
+		/** Whether this entry interned the shared block first and is charged for it. */
+		private final boolean ownsSharedHeaders;
+		private final HeaderBlock entryHeaders;
 		private final byte[] body;
+		private final boolean compressible;
+		private volatile byte[] gzipBody;
 
 		public CachedResponse(HttpStatus status, HttpHeaders headers, byte[] body) {
 			this.status = status;
-			// Create a new HttpHeaders object to avoid modifying the original
-			this.headers = new HttpHeaders();
-			this.headers.addAll(headers); // Copy headers
+			HeaderBlock.Builder shared = new HeaderBlock.Builder();
+			HeaderBlock.Builder entry = new HeaderBlock.Builder();
+			headers.forEach((name, values) -> {
+				String lowerCaseName = name.toLowerCase(Locale.ROOT);
+				if (DROPPED_HEADERS.contains(lowerCaseName) || lowerCaseName.startsWith(RATE_LIMIT_HEADER_PREFIX)) {
+					return;
+				}
+				HeaderBlock.Builder target = ENTRY_HEADERS.contains(lowerCaseName) ? entry : shared;
+				for (String value : values) {
+					target.add(name, value);
+				}
+			});
+			HeaderBlock sharedBlock = shared.build();
+			this.sharedHeaders = HeaderBlock.intern(sharedBlock);
+			this.ownsSharedHeaders = sharedHeaders == sharedBlock && !sharedBlock.isEmpty();
+			this.entryHeaders = entry.build();
 			this.body = body;
+			this.compressible = isCompressible(headers, body);
+		}
+
+		/**
+		 * Keeps a header that differs between responses, such as the configured
+		 * cache tag header, in the per-entry block so it does not defeat interning.
+		 */
+		static void registerEntryHeader(String name) {
+			ENTRY_HEADERS.add(name.toLowerCase(Locale.ROOT));
 		}
 
 		public HttpStatus getStatus() {
 			return status;
 		}
 
-		public HttpHeaders getHeaders() {
-			return headers;
+		/**
+		 * @return The first value of the header, matched case-insensitively, or null.
+		 */
+		public String getFirstHeader(String name) {
+			String value = entryHeaders.getFirst(name);
+			return value != null ? value : sharedHeaders.getFirst(name);
+		}
+
+		/**
+		 * @return All values of the header, matched case-insensitively.
+		 */
+		public List<String> getHeaderValues(String name) {
+			List<String> values = entryHeaders.getAll(name);
+			return values.isEmpty() ? sharedHeaders.getAll(name) : values;
+		}
+
+		/**
+		 * @return The number of stored header values.
+		 */
+		public int headerCount() {
+			return sharedHeaders.size() + entryHeaders.size();
+		}
+
+		/**
+		 * Calls the action for every stored header value, shared headers first.
+		 */
+		public void forEachHeader(BiConsumer<String, String> action) {
+			sharedHeaders.forEach(action);
+			entryHeaders.forEach(action);
+		}
+
+		/**
+		 * Writes the stored headers into the response, replacing existing values
+		 * of the same names.
+		 */
+		public void writeHeaders(ServerHttpResponse response) {
+			sharedHeaders.writeTo(response);
+			entryHeaders.writeTo(response);
 		}
 
 		public byte[] getBody() {
 			return body;
 		}
+
+		public boolean isCompressible() {
+			return compressible;
+		}
+
+		boolean hasGzipBody() {
+			return gzipBody != null;
+		}
+
+		/**
+		 * Returns the gzip variant of the body, compressing it on first use. Two
+		 * concurrent first hits may both compress; the results are identical.
+		 *
+		 * @return The gzip-encoded body, or null if compression does not make it smaller.
+		 */
+		public byte[] getGzipBody() {
+			byte[] variant = gzipBody;
+			if (variant == null) {
+				variant = gzip(body);
+				if (variant.length >= body.length) {
+					variant = NOT_SMALLER;
+				}
+				gzipBody = variant;
+			}
+			return variant == NOT_SMALLER ? null : variant;
+		}
+
+		/**
+		 * Approximate memory held by this entry, in bytes, including any compressed variant.
+		 */
+		public int weight() {
+			long weight = ENTRY_OVERHEAD_BYTES + body.length + entryHeaders.weight();
+			if (ownsSharedHeaders) {
+				// Entries that found the block already interned share its cost with the owner
+				weight += sharedHeaders.weight();
+			}
+			byte[] variant = gzipBody;
+			if (variant != null) {
+				weight += variant.length;
+			}
+			return (int) Math.min(Integer.MAX_VALUE, weight);
+		}
+
+		private static boolean isCompressible(HttpHeaders headers, byte[] body) {
+			if (body.length < MIN_COMPRESS_BYTES || headers.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+				return false;
+			}
+			MediaType contentType;
+			try {
+				contentType = headers.getContentType();
+			} catch (Exception e) {
+				return false;
+			}
+			if (contentType == null) {
+				return false;
+			}
+			String subtype = contentType.getSubtype();
+			return "text".equals(contentType.getType()) || subtype.equals("json") || subtype.endsWith("+json")
+					|| subtype.equals("xml") || subtype.endsWith("+xml") || subtype.equals("javascript");
+		}
+
+		private static byte[] gzip(byte[] data) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+			try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+				gzip.write(data);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return out.toByteArray();
+		}
 	}
 
 	/**
@@ -0,0 +1,146 @@
+package com.abkatk.apigateway.filter;
+
+import java.time.Duration;
+
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * GatewayFilterFactory that gives each request a deadline and propagates it
+ * upstream. The budget is the route's time limiter timeout minus a safety
+ * margin, shortened to the caller's own deadline if the request carries one in
+ * the deadline header. The remaining budget is sent upstream in that header, in
+ * milliseconds, so the service can stop working on requests nobody is waiting
+ * for.
+ *
+ * Must be placed before the circuit breaker in the route definition. Running
+ * out of the route budget is left to the circuit breaker's time limiter, which
+ * cancels the upstream call and records the timeout as a failure. A deadline
+ * shortened by the caller is enforced here instead: when it runs out the rest
+ * of the chain, including the upstream connection, is cancelled and the gateway
+ * answers 504 itself. A cancellation is not recorded by the circuit breaker,
+ * so one client sending short deadlines cannot open the circuit for everyone.
+ */
+@Component
+public class DeadlineGatewayFilterFactory extends AbstractGatewayFilterFactory<DeadlineGatewayFilterFactory.Config> {
+
+	public DeadlineGatewayFilterFactory() {
+		super(Config.class);
+	}
+
+	@Override
+	public GatewayFilter apply(Config config) {
+		return (exchange, chain) -> {
+			if (!config.isEnabled()) {
+				return chain.filter(exchange);
+			}
+
+			long routeBudgetMillis = config.getBudget().minus(config.getMargin()).toMillis();
+			long clientBudgetMillis = clientBudgetMillis(exchange, config.getHeader(), routeBudgetMillis);
+			boolean shortenedByClient = clientBudgetMillis >= 0 && clientBudgetMillis < routeBudgetMillis;
+			long budgetMillis = shortenedByClient ? clientBudgetMillis : routeBudgetMillis;
+			if (budgetMillis <= 0) {
+				// The caller has already given up, or the route has no usable budget
+				return gatewayTimeout(exchange);
+			}
+
+			Duration budget = Duration.ofMillis(budgetMillis);
+			RequestDeadline deadline = new RequestDeadline(System.nanoTime() + budget.toNanos(), config.getHeader());
+			exchange.getAttributes().put(RequestDeadline.ATTRIBUTE, deadline);
+			ServerWebExchange mutated = exchange.mutate()
+					.request(request -> request.headers(deadline::writeTo))
+					.build();
+
+			if (!shortenedByClient) {
+				return chain.filter(mutated);
+			}
+			return chain.filter(mutated).timeout(budget, Mono.defer(() -> gatewayTimeout(exchange)));
+		};
+	}
+
+	/**
+	 * Answers 504 unless the upstream response is already being written, in which
+	 * case the cancelled write simply ends the response.
+	 */
+	private static Mono<Void> gatewayTimeout(ServerWebExchange exchange) {
+		ServerHttpResponse response = exchange.getResponse();
+		if (response.isCommitted()) {
+			return Mono.empty();
+		}
+		// Drop whatever the upstream attempt had already copied into the response
+		ServerWebExchangeUtils.reset(exchange);
+		response.setStatusCode(HttpStatus.GATEWAY_TIMEOUT);
+		return response.setComplete();
+	}
+
+	/**
+	 * Returns the budget the caller sent in the deadline header, clamped to
+	 * {@code 0..maxMillis}, or -1 if there is none or it is not a number.
+	 */
+	private static long clientBudgetMillis(ServerWebExchange exchange, String header, long maxMillis) {
+		String value = exchange.getRequest().getHeaders().getFirst(header);
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Math.max(0, Math.min(Long.parseLong(value.trim()), maxMillis));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Configuration class for the DeadlineGatewayFilterFactory.
+	 */
+	public static class Config {
+		private boolean enabled = true;
+		/** Total time the gateway waits for the route, normally its time limiter timeout. */
+		private Duration budget = Duration.ofSeconds(5);
+		/** Subtracted from the budget sent upstream so the service gives up before the time limiter fires. */
+		private Duration margin = Duration.ofMillis(100);
+		private String header = "X-Request-Timeout-Ms";
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public Config setEnabled(boolean enabled) {
+			this.enabled = enabled;
+			return this;
+		}
+
+		public Duration getBudget() {
+			return budget;
+		}
+
+		public Config setBudget(Duration budget) {
+			this.budget = budget;
+			return this;
+		}
+
+		public Duration getMargin() {
+			return margin;
+		}
+
+		public Config setMargin(Duration margin) {
+			this.margin = margin;
+			return this;
+		}
+
+		public String getHeader() {
+			return header;
+		}
+
+		public Config setHeader(String header) {
+			this.header = header;
+			return this;
+		}
+	}
+}
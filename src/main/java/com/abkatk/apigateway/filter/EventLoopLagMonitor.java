@@ -0,0 +1,85 @@
+package com.abkatk.apigateway.filter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.util.concurrent.EventExecutor;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import reactor.netty.http.HttpResources;
+import reactor.netty.resources.LoopResources;
+
+/**
+ * Measures how far behind the Netty event loops are. A probe task is scheduled
+ * on every server event loop at a fixed interval; the difference between when
+ * it should have run and when it actually ran is the scheduling lag of that
+ * loop. The server and the gateway's HTTP client share these loops, so the lag
+ * reflects the gateway's own saturation rather than upstream latency.
+ */
+@Component
+public class EventLoopLagMonitor {
+
+	private final Duration probeInterval;
+	private final MeterRegistry meterRegistry;
+	private final List<EventExecutor> eventLoops = new ArrayList<>();
+	private AtomicLongArray lagNanos;
+	private volatile boolean running;
+
+	public EventLoopLagMonitor(@Value("${gateway.shedding.probe-interval:50ms}") Duration probeInterval,
+			MeterRegistry meterRegistry) {
+		this.probeInterval = probeInterval;
+		this.meterRegistry = meterRegistry;
+	}
+
+	@PostConstruct
+	void start() {
+		// Same loop resources the web server and the gateway's HttpClient run on
+		HttpResources.get().onServer(LoopResources.DEFAULT_NATIVE).forEach(eventLoops::add);
+		lagNanos = new AtomicLongArray(eventLoops.size());
+		running = true;
+		for (int i = 0; i < eventLoops.size(); i++) {
+			scheduleProbe(i);
+		}
+		Gauge.builder("gateway.eventloop.lag", this, monitor -> monitor.currentLagNanos() / 1_000_000.0)
+				.baseUnit("milliseconds").register(meterRegistry);
+	}
+
+	@PreDestroy
+	void stop() {
+		running = false;
+	}
+
+	/**
+	 * Returns the largest lag measured by the most recent probe on each loop.
+	 *
+	 * @return The current event loop lag in nanoseconds.
+	 */
+	public long currentLagNanos() {
+		long max = 0;
+		for (int i = 0; i < lagNanos.length(); i++) {
+			max = Math.max(max, lagNanos.get(i));
+		}
+		return max;
+	}
+
+	private void scheduleProbe(int index) {
+		EventExecutor eventLoop = eventLoops.get(index);
+		if (!running || eventLoop.isShuttingDown()) {
+			return;
+		}
+		long intervalNanos = probeInterval.toNanos();
+		long expected = System.nanoTime() + intervalNanos;
+		eventLoop.schedule(() -> {
+			lagNanos.set(index, Math.max(0, System.nanoTime() - expected));
+			scheduleProbe(index);
+		}, intervalNanos, TimeUnit.NANOSECONDS);
+	}
+}
@@ -0,0 +1,181 @@
+package com.abkatk.apigateway.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+
+import com.github.benmanes.caffeine.cache.Interner;
+
+import io.netty.util.AsciiString;
+import reactor.netty.http.server.HttpServerResponse;
+
+/**
+ * Immutable, pre-encoded list of response headers used by
+ * {@link CachingGatewayFilterFactory.CachedResponse}. Names and values are held
+ * as Netty {@link AsciiString}s, which is the byte form Netty writes to the
+ * wire, so a cache hit copies references into the native response headers
+ * instead of building a header map. Values are encoded as ISO-8859-1, as Netty
+ * does for any header value.
+ *
+ * Blocks are compared by content, so the headers shared by many entries of a
+ * route can be interned with {@link #intern(HeaderBlock)} and stored once.
+ */
+final class HeaderBlock {
+
+	static final HeaderBlock EMPTY = new HeaderBlock(new AsciiString[0], new AsciiString[0]);
+
+	private static final Interner<HeaderBlock> INTERNER = Interner.newWeakInterner();
+
+	/** Parallel arrays; values of the same name are adjacent. */
+	private final AsciiString[] names;
+	private final AsciiString[] values;
+	private final int hash;
+
+	private HeaderBlock(AsciiString[] names, AsciiString[] values) {
+		this.names = names;
+		this.values = values;
+		this.hash = 31 * Arrays.hashCode(names) + Arrays.hashCode(values);
+	}
+
+	/**
+	 * Returns the canonical instance for the block's contents. Blocks no longer
+	 * referenced by any cache entry are garbage collected.
+	 */
+	static HeaderBlock intern(HeaderBlock block) {
+		return block.names.length == 0 ? EMPTY : INTERNER.intern(block);
+	}
+
+	int size() {
+		return names.length;
+	}
+
+	boolean isEmpty() {
+		return names.length == 0;
+	}
+
+	/**
+	 * @return The first value of the header, matched case-insensitively, or null.
+	 */
+	String getFirst(String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].contentEqualsIgnoreCase(name)) {
+				return values[i].toString();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return All values of the header, matched case-insensitively.
+	 */
+	List<String> getAll(String name) {
+		List<String> result = null;
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].contentEqualsIgnoreCase(name)) {
+				if (result == null) {
+					result = new ArrayList<>(2);
+				}
+				result.add(values[i].toString());
+			}
+		}
+		return result == null ? Collections.emptyList() : result;
+	}
+
+	void forEach(BiConsumer<String, String> action) {
+		for (int i = 0; i < names.length; i++) {
+			action.accept(names[i].toString(), values[i].toString());
+		}
+	}
+
+	/**
+	 * Approximate bytes held by the block.
+	 */
+	int weight() {
+		int weight = 16 + names.length * 64;
+		for (int i = 0; i < names.length; i++) {
+			weight += names[i].length() + values[i].length();
+		}
+		return weight;
+	}
+
+	/**
+	 * Writes the block into the response, replacing any existing values of the
+	 * same headers. On Reactor Netty this goes straight into the native header
+	 * object that Spring's response headers are a view of.
+	 */
+	void writeTo(ServerHttpResponse response) {
+		if (nativeResponse(response) instanceof HttpServerResponse nettyResponse) {
+			io.netty.handler.codec.http.HttpHeaders headers = nettyResponse.responseHeaders();
+			for (int i = 0; i < names.length; i++) {
+				if (i == 0 || !names[i].contentEquals(names[i - 1])) {
+					headers.set(names[i], values[i]);
+				} else {
+					headers.add(names[i], values[i]);
+				}
+			}
+			return;
+		}
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i].toString();
+			if (i == 0 || !names[i].contentEquals(names[i - 1])) {
+				response.getHeaders().set(name, values[i].toString());
+			} else {
+				response.getHeaders().add(name, values[i].toString());
+			}
+		}
+	}
+
+	/**
+	 * Returns the underlying server's response, or null for responses that have
+	 * none (mock responses throw instead of returning one).
+	 */
+	private static Object nativeResponse(ServerHttpResponse response) {
+		try {
+			return ServerHttpResponseDecorator.getNativeResponse(response);
+		} catch (IllegalStateException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof HeaderBlock block) || hash != block.hash) {
+			return false;
+		}
+		return Arrays.equals(names, block.names) && Arrays.equals(values, block.values);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	/**
+	 * Collects headers in order; values of the same name must be added together.
+	 */
+	static class Builder {
+		private final List<AsciiString> names = new ArrayList<>();
+		private final List<AsciiString> values = new ArrayList<>();
+
+		Builder add(String name, String value) {
+			names.add(AsciiString.cached(name));
+			values.add(new AsciiString(value));
+			return this;
+		}
+
+		HeaderBlock build() {
+			if (names.isEmpty()) {
+				return EMPTY;
+			}
+			return new HeaderBlock(names.toArray(new AsciiString[0]), values.toArray(new AsciiString[0]));
+		}
+	}
+}
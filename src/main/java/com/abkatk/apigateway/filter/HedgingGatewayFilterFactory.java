@@ -0,0 +1,324 @@
+package com.abkatk.apigateway.filter;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_CONN_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_LOADBALANCER_RESPONSE_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.setAlreadyRouted;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ServerWebExchange;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.Connection;
+
+/**
+ * GatewayFilterFactory that hedges idempotent requests to {@code lb://}
+ * routes. The first attempt is routed as usual by the gateway, so its response
+ * is streamed with no size limit. If it has not answered after a delay derived
+ * from a percentile of recently observed latencies, a second attempt is sent to
+ * a different instance. The first response wins and the other attempt is
+ * cancelled, which closes its upstream connection. If the first attempt fails
+ * while the hedge is in flight, the hedge's response is used.
+ *
+ * Only a hedge that wins is answered by this filter directly, from a body
+ * buffered in memory; a hedge whose body exceeds
+ * {@link #MAX_BUFFERED_RESPONSE_BYTES} fails and leaves the request to the
+ * first attempt. The filter must be placed inside the circuit breaker in the
+ * route definition, so the circuit breaker and its time limiter see the hedged
+ * call as a single attempt. A hedge is not sent when less than the hedge delay
+ * is left of the request's deadline, and it carries the remaining deadline as
+ * of when it is sent.
+ */
+@Component
+public class HedgingGatewayFilterFactory extends AbstractGatewayFilterFactory<HedgingGatewayFilterFactory.Config> {
+
+	/** Upper bound for the buffered body of a hedge; hedging only targets read endpoints. */
+	private static final int MAX_BUFFERED_RESPONSE_BYTES = 2 * 1024 * 1024;
+
+	private static final List<String> HOP_BY_HOP_HEADERS = Arrays.asList(HttpHeaders.CONNECTION, "Keep-Alive",
+			HttpHeaders.TRANSFER_ENCODING, HttpHeaders.TE, HttpHeaders.TRAILER, HttpHeaders.UPGRADE,
+			HttpHeaders.PROXY_AUTHENTICATE, HttpHeaders.PROXY_AUTHORIZATION, HttpHeaders.CONTENT_LENGTH);
+
+	private final ServiceInstanceChooser instanceChooser;
+	private final WebClient webClient;
+
+	public HedgingGatewayFilterFactory(ServiceInstanceChooser instanceChooser, WebClient.Builder webClientBuilder) {
+		super(Config.class);
+		this.instanceChooser = instanceChooser;
+		this.webClient = webClientBuilder
+				.codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(MAX_BUFFERED_RESPONSE_BYTES)).build();
+	}
+
+	/**
+	 * Applies the hedging logic to the gateway request. Each filter instance keeps
+	 * its own latency window and hedge budget.
+	 *
+	 * @param config The configuration for this filter instance.
+	 * @return A GatewayFilter instance.
+	 */
+	@Override
+	public GatewayFilter apply(Config config) {
+		HedgeState state = new HedgeState(config);
+		return (exchange, chain) -> {
+			ServerHttpRequest request = exchange.getRequest();
+			Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+
+			// Only hedge idempotent, body-less requests to load-balanced routes
+			if (!config.isEnabled() || route == null || !"lb".equals(route.getUri().getScheme())
+					|| !(HttpMethod.GET.equals(request.getMethod()) || HttpMethod.HEAD.equals(request.getMethod()))) {
+				return chain.filter(exchange);
+			}
+
+			String serviceId = route.getUri().getHost();
+			Duration hedgeDelay = state.hedgeDelay();
+			RequestDeadline deadline = RequestDeadline.from(exchange);
+			state.recordRequest();
+
+			return Mono.defer(() -> {
+				AtomicBoolean hedgeSent = new AtomicBoolean();
+				// The hedge is subscribed to once; both branches below only observe its result
+				Sinks.One<ResponseEntity<byte[]>> hedgeResult = Sinks.one();
+				Disposable hedgeAttempt = Mono.delay(hedgeDelay)
+						// A hedge with less time left than a typical response takes is wasted work
+						.filter(tick -> (deadline == null || deadline.hasAtLeast(hedgeDelay)) && state.tryAcquireHedge())
+						.flatMap(tick -> chooseHedgeInstance(exchange, serviceId))
+						.doOnNext(instance -> hedgeSent.set(true))
+						.flatMap(instance -> attempt(request, instance, deadline, state))
+						.subscribe(hedgeResult::tryEmitValue, hedgeResult::tryEmitError, hedgeResult::tryEmitEmpty);
+
+				// The routing filters complete the chain once the response headers have
+				// arrived; the body is streamed afterwards by NettyWriteResponseFilter.
+				long start = System.nanoTime();
+				Mono<Optional<ResponseEntity<byte[]>>> first = chain.filter(exchange)
+						// A first attempt that loses to the hedge took at least this long; leaving
+						// it out of the window would bias the percentile low.
+						.doOnCancel(() -> state.recordLatency(System.nanoTime() - start))
+						.then(Mono.fromSupplier(() -> {
+							state.recordLatency(System.nanoTime() - start);
+							return Optional.<ResponseEntity<byte[]>>empty();
+						}));
+
+				// If the first attempt fails after the hedge was sent, the hedge decides
+				// the outcome; should it fail too, the first attempt's error is reported.
+				Mono<Optional<ResponseEntity<byte[]>>> firstOrHedge = first.onErrorResume(e -> hedgeSent.get()
+						? hedgeResult.asMono().map(Optional::of).switchIfEmpty(Mono.error(e)).onErrorMap(hedgeError -> e)
+						: Mono.error(e));
+				// The hedge alone never signals an error or completes empty
+				Mono<Optional<ResponseEntity<byte[]>>> hedge = hedgeResult.asMono().map(Optional::of)
+						.onErrorResume(e -> Mono.never())
+						.switchIfEmpty(Mono.never());
+
+				return Mono.firstWithSignal(firstOrHedge, hedge)
+						// Once the first attempt has won, a pending hedge is never sent and one
+						// in flight is cancelled along with its upstream connection
+						.doFinally(signal -> hedgeAttempt.dispose())
+						.flatMap(result -> result.isPresent()
+								? writeHedgeResponse(exchange, result.get())
+								: Mono.empty());
+			});
+		};
+	}
+
+	/**
+	 * Picks an instance other than the one the load balancer chose for the first
+	 * attempt, if that choice is known yet.
+	 */
+	private Mono<ServiceInstance> chooseHedgeInstance(ServerWebExchange exchange, String serviceId) {
+		Response<ServiceInstance> firstChoice = exchange.getAttribute(GATEWAY_LOADBALANCER_RESPONSE_ATTR);
+		if (firstChoice == null || !firstChoice.hasServer()) {
+			return instanceChooser.choose(serviceId);
+		}
+		return instanceChooser.chooseOther(serviceId, firstChoice.getServer());
+	}
+
+	private Mono<ResponseEntity<byte[]>> attempt(ServerHttpRequest request, ServiceInstance instance,
+			RequestDeadline deadline, HedgeState state) {
+		URI uri = ServiceInstanceChooser.reconstructUri(instance, request.getURI());
+		return Mono.defer(() -> {
+			long start = System.nanoTime();
+			return webClient.method(request.getMethod()).uri(uri).headers(headers -> {
+				headers.addAll(request.getHeaders());
+				headers.remove(HttpHeaders.HOST);
+				HOP_BY_HOP_HEADERS.forEach(headers::remove);
+				if (deadline != null) {
+					deadline.writeTo(headers);
+				}
+			}).exchangeToMono(response -> {
+				// Measured to the response headers, like the first attempt
+				state.recordLatency(System.nanoTime() - start);
+				return response.toEntity(byte[].class);
+			});
+		});
+	}
+
+	/**
+	 * Answers the request with the hedge's response. Whatever the cancelled first
+	 * attempt left behind (headers, its upstream connection) is discarded, so
+	 * NettyWriteResponseFilter does not write it.
+	 */
+	private Mono<Void> writeHedgeResponse(ServerWebExchange exchange, ResponseEntity<byte[]> upstream) {
+		Connection firstConnection = exchange.getAttribute(CLIENT_RESPONSE_CONN_ATTR);
+		if (firstConnection != null) {
+			firstConnection.dispose();
+			exchange.getAttributes().remove(CLIENT_RESPONSE_CONN_ATTR);
+		}
+		ServerWebExchangeUtils.reset(exchange);
+		setAlreadyRouted(exchange);
+
+		ServerHttpResponse response = exchange.getResponse();
+		response.setStatusCode(upstream.getStatusCode());
+		response.getHeaders().putAll(upstream.getHeaders());
+		HOP_BY_HOP_HEADERS.forEach(response.getHeaders()::remove);
+
+		byte[] body = upstream.getBody();
+		if (body == null || body.length == 0) {
+			return response.setComplete();
+		}
+		response.getHeaders().setContentLength(body.length);
+		return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+	}
+
+	/**
+	 * Configuration class for the HedgingGatewayFilterFactory. Hedging is opt-in;
+	 * a disabled filter passes requests straight through.
+	 */
+	public static class Config {
+		private boolean enabled = false;
+		/** Latency percentile after which the hedge is sent. */
+		private int percentile = 95;
+		private Duration minDelay = Duration.ofMillis(20);
+		private Duration maxDelay = Duration.ofMillis(500);
+		/** Maximum hedged attempts as a percentage of requests seen by this filter. */
+		private int budgetPercent = 10;
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public Config setEnabled(boolean enabled) {
+			this.enabled = enabled;
+			return this;
+		}
+
+		public int getPercentile() {
+			return percentile;
+		}
+
+		public Config setPercentile(int percentile) {
+			this.percentile = percentile;
+			return this;
+		}
+
+		public Duration getMinDelay() {
+			return minDelay;
+		}
+
+		public Config setMinDelay(Duration minDelay) {
+			this.minDelay = minDelay;
+			return this;
+		}
+
+		public Duration getMaxDelay() {
+			return maxDelay;
+		}
+
+		public Config setMaxDelay(Duration maxDelay) {
+			this.maxDelay = maxDelay;
+			return this;
+		}
+
+		public int getBudgetPercent() {
+			return budgetPercent;
+		}
+
+		public Config setBudgetPercent(int budgetPercent) {
+			this.budgetPercent = budgetPercent;
+			return this;
+		}
+	}
+
+	/**
+	 * Latency window and hedge budget for one filter instance. Samples are kept in
+	 * a small ring buffer and the hedge delay is recomputed every
+	 * {@link #RECOMPUTE_EVERY} samples, so the per-request cost is a read of a
+	 * volatile field. Races on the ring buffer only skew the estimate slightly.
+	 */
+	private static class HedgeState {
+		private static final int WINDOW = 128; // Must be a power of two
+		private static final int RECOMPUTE_EVERY = 32;
+		/** Counters are halved when requests reach this value so the budget tracks recent traffic. */
+		private static final long BUDGET_WINDOW = 10_000;
+
+		private final Config config;
+		private final long[] samples = new long[WINDOW];
+		private final AtomicInteger cursor = new AtomicInteger();
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong hedges = new AtomicLong();
+		private volatile long delayNanos;
+
+		HedgeState(Config config) {
+			this.config = config;
+			// Until enough samples exist, only hedge requests that are clearly slow
+			this.delayNanos = config.getMaxDelay().toNanos();
+		}
+
+		Duration hedgeDelay() {
+			return Duration.ofNanos(delayNanos);
+		}
+
+		void recordRequest() {
+			if (requests.incrementAndGet() >= BUDGET_WINDOW) {
+				requests.set(BUDGET_WINDOW / 2);
+				hedges.set(hedges.get() / 2);
+			}
+		}
+
+		boolean tryAcquireHedge() {
+			long used = hedges.get();
+			if (used * 100 >= (long) config.getBudgetPercent() * requests.get()) {
+				return false;
+			}
+			return hedges.compareAndSet(used, used + 1);
+		}
+
+		void recordLatency(long nanos) {
+			int index = cursor.getAndIncrement();
+			samples[index & (WINDOW - 1)] = nanos;
+			if ((index + 1) % RECOMPUTE_EVERY == 0) {
+				// After the cursor wraps around, the whole window is populated
+				recompute(index < 0 || index + 1 >= WINDOW ? WINDOW : index + 1);
+			}
+		}
+
+		private void recompute(int count) {
+			long[] sorted = Arrays.copyOf(samples, count);
+			Arrays.sort(sorted);
+			int rank = (int) Math.ceil(config.getPercentile() / 100.0 * count) - 1;
+			long estimate = sorted[Math.max(0, Math.min(rank, count - 1))];
+			delayNanos = Math.max(config.getMinDelay().toNanos(), Math.min(config.getMaxDelay().toNanos(), estimate));
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.abkatk.apigateway.filter;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import com.abkatk.apigateway.security.TokenPriorityCache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * WebFilter that sheds lower-priority requests while the gateway's event loops
+ * are lagging. It runs before Spring Security, so a shed request costs a few
+ * header reads and a hash lookup: no JWT parsing, routing or upstream call.
+ *
+ * The priority of a request is the lowest of:
+ * <ol>
+ * <li>the priority of its bearer token, if JwtAuthenticationManager has
+ * validated that token recently (ADMIN is HIGH, other users NORMAL; no token
+ * or one not validated yet is LOW, so a made-up token does not lift anonymous
+ * traffic out of the first tier to be shed),</li>
+ * <li>the cap of its path: HIGH for the configured high-priority path
+ * prefixes, LOW for the low-priority ones and NORMAL for everything else, so
+ * only administrators calling high-priority paths are HIGH and a path never
+ * promotes a request on its own,</li>
+ * <li>the {@code X-Request-Priority} header, which may only lower the
+ * priority so clients cannot use it to skip shedding.</li>
+ * </ol>
+ */
+@Component
+public class LoadSheddingWebFilter implements WebFilter, Ordered {
+
+	public static final String PRIORITY_HEADER = "X-Request-Priority";
+	private static final String BEARER_PREFIX = "Bearer ";
+
+	private final EventLoopLagMonitor lagMonitor;
+	private final TokenPriorityCache tokenPriorityCache;
+	private final boolean enabled;
+	private final String[] highPriorityPaths;
+	private final String[] lowPriorityPaths;
+	private final Map<RequestPriority, Long> shedThresholdNanos = new EnumMap<>(RequestPriority.class);
+	private final Map<RequestPriority, Counter> shedCounters = new EnumMap<>(RequestPriority.class);
+
+	public LoadSheddingWebFilter(EventLoopLagMonitor lagMonitor, TokenPriorityCache tokenPriorityCache,
+			MeterRegistry meterRegistry, @Value("${gateway.shedding.enabled:true}") boolean enabled,
+			@Value("${gateway.shedding.high-priority-paths:/admin/,/actuator/}") String[] highPriorityPaths,
+			@Value("${gateway.shedding.low-priority-paths:/public/}") String[] lowPriorityPaths,
+			@Value("${gateway.shedding.low-lag-threshold:50ms}") Duration lowLagThreshold,
+			@Value("${gateway.shedding.normal-lag-threshold:200ms}") Duration normalLagThreshold,
+			@Value("${gateway.shedding.high-lag-threshold:1s}") Duration highLagThreshold) {
+		this.lagMonitor = lagMonitor;
+		this.tokenPriorityCache = tokenPriorityCache;
+		this.enabled = enabled;
+		this.highPriorityPaths = highPriorityPaths;
+		this.lowPriorityPaths = lowPriorityPaths;
+		shedThresholdNanos.put(RequestPriority.LOW, lowLagThreshold.toNanos());
+		shedThresholdNanos.put(RequestPriority.NORMAL, normalLagThreshold.toNanos());
+		shedThresholdNanos.put(RequestPriority.HIGH, highLagThreshold.toNanos());
+		for (RequestPriority priority : RequestPriority.values()) {
+			shedCounters.put(priority, Counter.builder("gateway.shedding.rejected")
+					.tag("priority", priority.name()).register(meterRegistry));
+		}
+	}
+
+	@Override
+	public int getOrder() {
+		// Ahead of Spring Security's WebFilterChainProxy (-100)
+		return Ordered.HIGHEST_PRECEDENCE;
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		if (!enabled) {
+			return chain.filter(exchange);
+		}
+		long lag = lagMonitor.currentLagNanos();
+		// Fast path: nothing is shed below the lowest threshold
+		if (lag < shedThresholdNanos.get(RequestPriority.LOW)) {
+			return chain.filter(exchange);
+		}
+
+		RequestPriority priority = resolvePriority(exchange.getRequest());
+		if (lag < shedThresholdNanos.get(priority)) {
+			return chain.filter(exchange);
+		}
+
+		shedCounters.get(priority).increment();
+		ServerHttpResponse response = exchange.getResponse();
+		response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+		response.getHeaders().set(HttpHeaders.RETRY_AFTER, "1");
+		return response.setComplete();
+	}
+
+	private RequestPriority resolvePriority(ServerHttpRequest request) {
+		RequestPriority priority;
+		String authorization = request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+		if (authorization == null || !authorization.startsWith(BEARER_PREFIX)) {
+			priority = RequestPriority.LOW;
+		} else {
+			priority = tokenPriorityCache.lookup(authorization.substring(BEARER_PREFIX.length()));
+			if (priority == null) {
+				// Not validated yet; possibly not a real token, so it ranks with anonymous traffic
+				priority = RequestPriority.LOW;
+			}
+		}
+
+		// The path caps the priority; only a validated ADMIN token makes a request HIGH
+		String path = request.getPath().value();
+		RequestPriority pathCap = startsWithAny(path, highPriorityPaths) ? RequestPriority.HIGH
+				: startsWithAny(path, lowPriorityPaths) ? RequestPriority.LOW
+				: RequestPriority.NORMAL;
+		if (pathCap.compareTo(priority) < 0) {
+			priority = pathCap;
+		}
+
+		String requested = request.getHeaders().getFirst(PRIORITY_HEADER);
+		if (requested != null) {
+			try {
+				RequestPriority requestedPriority = RequestPriority.valueOf(requested.trim().toUpperCase());
+				if (requestedPriority.compareTo(priority) < 0) {
+					priority = requestedPriority;
+				}
+			} catch (IllegalArgumentException e) {
+				// Unknown values are ignored
+			}
+		}
+		return priority;
+	}
+
+	private static boolean startsWithAny(String path, String[] prefixes) {
+		for (String prefix : prefixes) {
+			if (!prefix.isEmpty() && path.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
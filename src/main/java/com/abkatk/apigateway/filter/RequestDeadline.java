@@ -0,0 +1,54 @@
+package com.abkatk.apigateway.filter;
+
+import java.time.Duration;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.server.ServerWebExchange;
+
+/**
+ * The point in time by which a request must be answered, set by
+ * DeadlineGatewayFilterFactory and stored as an exchange attribute. Filters
+ * that make further upstream attempts (hedges, retries) read it to skip
+ * attempts that could not finish in time and to send the remaining budget
+ * upstream.
+ */
+public final class RequestDeadline {
+
+	static final String ATTRIBUTE = RequestDeadline.class.getName();
+
+	private final long deadlineNanos;
+	private final String header;
+
+	RequestDeadline(long deadlineNanos, String header) {
+		this.deadlineNanos = deadlineNanos;
+		this.header = header;
+	}
+
+	/**
+	 * @return The deadline of the exchange, or null if it has none.
+	 */
+	public static RequestDeadline from(ServerWebExchange exchange) {
+		return exchange.getAttribute(ATTRIBUTE);
+	}
+
+	/**
+	 * @return The time left until the deadline; zero once it has passed.
+	 */
+	public Duration remaining() {
+		return Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime()));
+	}
+
+	/**
+	 * @return Whether at least the given time is left until the deadline.
+	 */
+	public boolean hasAtLeast(Duration time) {
+		return deadlineNanos - System.nanoTime() >= time.toNanos();
+	}
+
+	/**
+	 * Sets the deadline header to the remaining budget in milliseconds, as of now.
+	 */
+	public void writeTo(HttpHeaders headers) {
+		headers.set(header, Long.toString(remaining().toMillis()));
+	}
+}
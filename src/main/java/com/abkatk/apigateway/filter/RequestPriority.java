@@ -0,0 +1,14 @@
+package com.abkatk.apigateway.filter;
+
+/**
+ * Priority classes used by {@link LoadSheddingWebFilter}. Lower priorities are
+ * shed first when the gateway's event loops fall behind.
+ */
+public enum RequestPriority {
+	/** Anonymous traffic, low-priority paths, and clients that ask to be shed first. */
+	LOW,
+	/** Authenticated users, and administrators outside the high-priority paths. */
+	NORMAL,
+	/** Administrators calling high-priority paths. */
+	HIGH
+}
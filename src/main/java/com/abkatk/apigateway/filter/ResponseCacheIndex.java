@@ -0,0 +1,189 @@
+package com.abkatk.apigateway.filter;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+/**
+ * Secondary index over the {@code apiResponses} cache, from tag and from URI
+ * path to cache keys, so that bulk invalidation only touches the affected
+ * entries. Tags come from the upstream response header configured as
+ * {@code gateway.cache.tag-header} (comma or whitespace separated).
+ *
+ * Entries are put into the cache through {@link #put}, which indexes them; the
+ * removal listener registered in CacheConfig unindexes them when they are
+ * evicted, expire or are invalidated.
+ */
+@Component
+public class ResponseCacheIndex {
+
+	private static final Pattern TAG_SEPARATOR = Pattern.compile("[,\\s]+");
+
+	private final String tagHeader;
+	private final Map<String, Indexed> indexedByKey = new ConcurrentHashMap<>();
+	private final Map<String, Set<String>> keysByTag = new ConcurrentHashMap<>();
+	/** Sorted by path so a prefix maps to a contiguous range. */
+	private final ConcurrentSkipListMap<String, Set<String>> keysByPath = new ConcurrentSkipListMap<>();
+
+	public ResponseCacheIndex(@Value("${gateway.cache.tag-header:X-Cache-Tags}") String tagHeader) {
+		this.tagHeader = tagHeader;
+		// Tags differ per response, so they must not end up in the interned shared headers
+		CachingGatewayFilterFactory.CachedResponse.registerEntryHeader(tagHeader);
+	}
+
+	/**
+	 * Puts an entry into the cache and indexes it. Caffeine may reject or evict
+	 * the entry right away, and its asynchronous removal listener can then run
+	 * before the entry is indexed; the key is unindexed again in that case, so the
+	 * index never keeps a key that is no longer cached.
+	 */
+	public void put(Cache cache, String key, CachingGatewayFilterFactory.CachedResponse response) {
+		cache.put(key, response);
+		onPut(key, response);
+		if (!isCached(cache, key, response)) {
+			onRemoval(key, response, RemovalCause.EXPLICIT);
+		}
+	}
+
+	/**
+	 * Indexes an entry that has just been put into the cache, replacing whatever
+	 * was indexed for the key before.
+	 */
+	public void onPut(String key, CachingGatewayFilterFactory.CachedResponse response) {
+		Set<String> tags = tagsOf(response);
+		String path = pathOf(key);
+		indexedByKey.compute(key, (k, previous) -> {
+			if (previous != null) {
+				for (String tag : previous.tags) {
+					if (!tags.contains(tag)) {
+						removeFrom(keysByTag, tag, key);
+					}
+				}
+			}
+			for (String tag : tags) {
+				addTo(keysByTag, tag, key);
+			}
+			if (path != null) {
+				addTo(keysByPath, path, key);
+			}
+			return new Indexed(response, path, tags);
+		});
+	}
+
+	/**
+	 * Removal listener callback. Replacements are ignored because the put that
+	 * caused them has already re-indexed the key; other removals only unindex
+	 * the key if the removed value is still the indexed one, since the listener
+	 * runs asynchronously and the key may have been put again meanwhile.
+	 */
+	public void onRemoval(Object key, Object value, RemovalCause cause) {
+		if (cause == RemovalCause.REPLACED || !(key instanceof String cacheKey)) {
+			return;
+		}
+		indexedByKey.computeIfPresent(cacheKey, (k, indexed) -> {
+			if (indexed.value != value) {
+				return indexed;
+			}
+			for (String tag : indexed.tags) {
+				removeFrom(keysByTag, tag, cacheKey);
+			}
+			if (indexed.path != null) {
+				removeFrom(keysByPath, indexed.path, cacheKey);
+			}
+			return null;
+		});
+	}
+
+	private static boolean isCached(Cache cache, String key, Object value) {
+		if (cache instanceof CaffeineCache caffeineCache) {
+			// Read through the map view so the check does not count as an access
+			return caffeineCache.getNativeCache().asMap().get(key) == value;
+		}
+		Cache.ValueWrapper cached = cache.get(key);
+		return cached != null && cached.get() == value;
+	}
+
+	/**
+	 * @return A copy of the keys of entries carrying the tag.
+	 */
+	public Set<String> keysForTag(String tag) {
+		Set<String> keys = keysByTag.get(tag);
+		return keys == null ? Collections.emptySet() : new HashSet<>(keys);
+	}
+
+	/**
+	 * @return A copy of the keys of entries whose URI path (with query) starts with the prefix.
+	 */
+	public Set<String> keysForPathPrefix(String prefix) {
+		Set<String> keys = new HashSet<>();
+		keysByPath.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values().forEach(keys::addAll);
+		return keys;
+	}
+
+	/**
+	 * Returns the URI path and query of a cache key, or null if the key is not a URI.
+	 */
+	public static String pathOf(String key) {
+		try {
+			URI uri = URI.create(key);
+			String path = uri.getRawPath() == null ? "" : uri.getRawPath();
+			return uri.getRawQuery() == null ? path : path + "?" + uri.getRawQuery();
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return The tags the upstream attached to the response.
+	 */
+	public Set<String> tagsOf(CachingGatewayFilterFactory.CachedResponse response) {
+		Set<String> tags = new HashSet<>();
+		for (String value : response.getHeaderValues(tagHeader)) {
+			for (String tag : TAG_SEPARATOR.split(value.trim())) {
+				if (!tag.isEmpty()) {
+					tags.add(tag);
+				}
+			}
+		}
+		return tags;
+	}
+
+	private static void addTo(Map<String, Set<String>> index, String indexKey, String cacheKey) {
+		index.compute(indexKey, (k, keys) -> {
+			Set<String> result = keys != null ? keys : ConcurrentHashMap.newKeySet();
+			result.add(cacheKey);
+			return result;
+		});
+	}
+
+	private static void removeFrom(Map<String, Set<String>> index, String indexKey, String cacheKey) {
+		index.computeIfPresent(indexKey, (k, keys) -> {
+			keys.remove(cacheKey);
+			return keys.isEmpty() ? null : keys;
+		});
+	}
+
+	private static class Indexed {
+		private final Object value;
+		private final String path;
+		private final Set<String> tags;
+
+		Indexed(Object value, String path, Set<String> tags) {
+			this.value = value;
+			this.path = path;
+			this.tags = tags;
+		}
+	}
+}
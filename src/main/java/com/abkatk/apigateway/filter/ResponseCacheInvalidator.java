@@ -0,0 +1,98 @@
+package com.abkatk.apigateway.filter;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.stereotype.Component;
+
+/**
+ * Drops entries from the {@code apiResponses} cache by exact key, URI path
+ * prefix or tag. Prefix and tag lookups go through {@link ResponseCacheIndex},
+ * so their cost is proportional to the number of matching entries rather than
+ * the size of the cache. Matching entries that are still waiting in the
+ * startup snapshot are discarded as well, so they cannot be faulted back in.
+ *
+ * Key and prefix invalidation also clear the {@code negativeResponses} cache,
+ * so a 404 cached just before the resource was created is not served after
+ * the invalidation. That cache is small and short-lived, so it is scanned.
+ */
+@Component
+public class ResponseCacheInvalidator {
+
+	private static final String CACHE_NAME = "apiResponses"; // Must match the cache name in CacheConfig
+	private static final String NEGATIVE_CACHE_NAME = "negativeResponses"; // Registered separately in CacheConfig
+
+	private final CacheManager cacheManager;
+	private final ResponseCacheIndex cacheIndex;
+	private final ResponseCacheSnapshot cacheSnapshot;
+
+	public ResponseCacheInvalidator(CacheManager cacheManager, ResponseCacheIndex cacheIndex,
+			ResponseCacheSnapshot cacheSnapshot) {
+		this.cacheManager = cacheManager;
+		this.cacheIndex = cacheIndex;
+		this.cacheSnapshot = cacheSnapshot;
+	}
+
+	/**
+	 * @param key The exact cache key, i.e. the full request URI.
+	 * @return The number of cache entries removed.
+	 */
+	public int invalidateKey(String key) {
+		cacheSnapshot.discard(key::equals);
+		return evict(Set.of(key)) + evictNegative(key::equals);
+	}
+
+	/**
+	 * @param prefix A URI path prefix as seen by the gateway, e.g. {@code /unison/user/}.
+	 * @return The number of cache entries removed.
+	 */
+	public int invalidatePathPrefix(String prefix) {
+		Predicate<String> matchesPrefix = key -> {
+			String path = ResponseCacheIndex.pathOf(key);
+			return path != null && path.startsWith(prefix);
+		};
+		cacheSnapshot.discard(matchesPrefix);
+		return evict(cacheIndex.keysForPathPrefix(prefix)) + evictNegative(matchesPrefix);
+	}
+
+	/**
+	 * @param tag A tag sent by the upstream in the configured tag header.
+	 * @return The number of cache entries removed.
+	 */
+	public int invalidateTag(String tag) {
+		cacheSnapshot.discardTag(tag);
+		return evict(cacheIndex.keysForTag(tag));
+	}
+
+	private int evict(Collection<String> keys) {
+		Cache cache = cacheManager.getCache(CACHE_NAME);
+		if (cache == null) {
+			return 0;
+		}
+		int evicted = 0;
+		for (String key : keys) {
+			if (cache.evictIfPresent(key)) {
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+
+	private int evictNegative(Predicate<String> keyFilter) {
+		Cache cache = cacheManager.getCache(NEGATIVE_CACHE_NAME);
+		if (!(cache instanceof CaffeineCache caffeineCache)) {
+			return 0;
+		}
+		int evicted = 0;
+		for (Object key : caffeineCache.getNativeCache().asMap().keySet()) {
+			if (key instanceof String cacheKey && keyFilter.test(cacheKey) && cache.evictIfPresent(cacheKey)) {
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+}
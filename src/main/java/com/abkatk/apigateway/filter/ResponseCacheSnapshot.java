@@ -0,0 +1,397 @@
+package com.abkatk.apigateway.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Policy;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Persists the {@code apiResponses} cache to a memory-mapped snapshot file so a
+ * restarted gateway does not start cold. The snapshot is written periodically
+ * and on shutdown. On startup only the index (keys, offsets and expiry times)
+ * is read; entry bodies stay in the mapped file and are decoded when
+ * CachingGatewayFilterFactory misses on their key.
+ *
+ * File layout: magic, version and entry count, followed by one index record
+ * per entry (key, expiry as epoch millis, data offset and length, tags),
+ * followed by the entry data (status, header name/value pairs, body). Gzip variants are not stored; they
+ * are rebuilt on demand.
+ *
+ * The snapshot holds API responses, so it lives in a gateway-owned directory
+ * by default and is created readable and writable by its owner only. A file
+ * that is not a regular file owned by the gateway's user, or that others can
+ * write to, is never loaded.
+ */
+@Component
+public class ResponseCacheSnapshot {
+
+	private static final String CACHE_NAME = "apiResponses"; // Must match the cache name in CacheConfig
+	private static final int MAGIC = 0x47574353; // "GWCS"
+	private static final int VERSION = 3;
+	private static final Set<PosixFilePermission> OWNER_ONLY_FILE = PosixFilePermissions.fromString("rw-------");
+	private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY = PosixFilePermissions.fromString("rwx------");
+
+	private final CacheManager cacheManager;
+	private final ResponseCacheIndex cacheIndex;
+	private final boolean enabled;
+	private final Path path;
+	private final Duration interval;
+	private final boolean posix;
+
+	/** Snapshot entries not yet faulted into the cache, by cache key. */
+	private final Map<String, IndexEntry> pending = new ConcurrentHashMap<>();
+	private volatile ByteBuffer mapped;
+	private Disposable periodicWrite;
+
+	public ResponseCacheSnapshot(CacheManager cacheManager, ResponseCacheIndex cacheIndex,
+			@Value("${gateway.cache.snapshot.enabled:true}") boolean enabled,
+			@Value("${gateway.cache.snapshot.path:${user.home}/.api-gateway/cache.snapshot}") String path,
+			@Value("${gateway.cache.snapshot.interval:60s}") Duration interval) {
+		this.cacheManager = cacheManager;
+		this.cacheIndex = cacheIndex;
+		this.enabled = enabled;
+		this.path = Paths.get(path);
+		this.interval = interval;
+		this.posix = this.path.getFileSystem().supportedFileAttributeViews().contains("posix");
+	}
+
+	@PostConstruct
+	void start() {
+		if (!enabled) {
+			return;
+		}
+		try {
+			createDirectory();
+		} catch (IOException e) {
+			System.err.println("Failed to create cache snapshot directory for " + path + ": " + e.getMessage());
+		}
+		load();
+		periodicWrite = Schedulers.boundedElastic().schedulePeriodically(this::writeQuietly, interval.toMillis(),
+				interval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	void stop() {
+		if (periodicWrite != null) {
+			periodicWrite.dispose();
+		}
+		if (enabled) {
+			writeQuietly();
+		}
+	}
+
+	/**
+	 * Decodes the snapshot entry for the given key, if the last snapshot had one
+	 * that has not expired yet. Each entry is handed out at most once; after
+	 * that it lives in the cache.
+	 *
+	 * @param key The cache key.
+	 * @return The restored response, or null.
+	 */
+	public CachingGatewayFilterFactory.CachedResponse restore(String key) {
+		if (pending.isEmpty()) {
+			return null;
+		}
+		IndexEntry entry = pending.remove(key);
+		if (entry == null || entry.expiresAt <= System.currentTimeMillis()) {
+			return null;
+		}
+		return decode(entryData(entry));
+	}
+
+	/**
+	 * Drops snapshot entries that have not been faulted in yet and whose key
+	 * matches, so that invalidated responses cannot come back from the snapshot.
+	 */
+	public void discard(Predicate<String> keyFilter) {
+		pending.keySet().removeIf(keyFilter);
+	}
+
+	/**
+	 * Drops snapshot entries that have not been faulted in yet and carry the tag.
+	 */
+	public void discardTag(String tag) {
+		pending.values().removeIf(entry -> entry.tags.contains(tag));
+	}
+
+	private void createDirectory() throws IOException {
+		Path directory = path.toAbsolutePath().getParent();
+		if (directory == null || Files.exists(directory)) {
+			return;
+		}
+		if (posix) {
+			Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY));
+		} else {
+			Files.createDirectories(directory);
+		}
+	}
+
+	/**
+	 * Checks that the snapshot was written by this gateway's user: a regular file,
+	 * not a link, owned by the process user and not writable by anyone else.
+	 */
+	private boolean isTrusted(Path file) throws IOException {
+		if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+			return false;
+		}
+		UserPrincipal processUser = file.getFileSystem().getUserPrincipalLookupService()
+				.lookupPrincipalByName(System.getProperty("user.name"));
+		if (!processUser.equals(Files.getOwner(file, LinkOption.NOFOLLOW_LINKS))) {
+			return false;
+		}
+		if (posix) {
+			Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file, LinkOption.NOFOLLOW_LINKS);
+			return !permissions.contains(PosixFilePermission.GROUP_WRITE)
+					&& !permissions.contains(PosixFilePermission.OTHERS_WRITE);
+		}
+		return true;
+	}
+
+	private void load() {
+		if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+			return;
+		}
+		try {
+			if (!isTrusted(path)) {
+				System.err.println("Ignoring cache snapshot not owned by this user or writable by others: " + path);
+				return;
+			}
+		} catch (IOException e) {
+			System.err.println("Ignoring cache snapshot whose ownership cannot be checked: " + path + ": "
+					+ e.getMessage());
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				System.err.println("Ignoring cache snapshot with unknown format: " + path);
+				return;
+			}
+			int count = buffer.getInt();
+			long now = System.currentTimeMillis();
+			for (int i = 0; i < count; i++) {
+				String key = readString(buffer);
+				long expiresAt = buffer.getLong();
+				int offset = buffer.getInt();
+				int length = buffer.getInt();
+				Set<String> tags = new HashSet<>();
+				for (int tagCount = buffer.getInt(); tagCount > 0; tagCount--) {
+					tags.add(readString(buffer));
+				}
+				IndexEntry entry = new IndexEntry(expiresAt, offset, length, tags);
+				if (entry.expiresAt > now) {
+					pending.put(key, entry);
+				}
+			}
+			mapped = buffer;
+			System.out.println("Loaded cache snapshot index with " + pending.size() + " entries from " + path);
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Failed to load cache snapshot " + path + ": " + e.getMessage());
+			pending.clear();
+		}
+	}
+
+	private void writeQuietly() {
+		try {
+			write();
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Failed to write cache snapshot " + path + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes the current cache contents, plus snapshot entries that were never
+	 * faulted in, to a temporary file and atomically replaces the snapshot.
+	 */
+	synchronized void write() throws IOException {
+		Cache cache = cacheManager.getCache(CACHE_NAME);
+		if (!(cache instanceof CaffeineCache caffeineCache)) {
+			return;
+		}
+		com.github.benmanes.caffeine.cache.Cache<Object, Object> nativeCache = caffeineCache.getNativeCache();
+		Optional<Policy.FixedExpiration<Object, Object>> expiration = nativeCache.policy().expireAfterAccess();
+		long now = System.currentTimeMillis();
+
+		List<String> keys = new ArrayList<>();
+		List<Long> expiries = new ArrayList<>();
+		List<byte[]> data = new ArrayList<>();
+		List<Set<String>> tags = new ArrayList<>();
+		for (Map.Entry<Object, Object> entry : nativeCache.asMap().entrySet()) {
+			if (!(entry.getKey() instanceof String key)
+					|| !(entry.getValue() instanceof CachingGatewayFilterFactory.CachedResponse response)) {
+				continue;
+			}
+			// Remaining idle time before expireAfterAccess would drop the entry
+			long remaining = expiration.map(policy -> policy.getExpiresAfter(TimeUnit.MILLISECONDS)
+					- policy.ageOf(key, TimeUnit.MILLISECONDS).orElse(0)).orElse(Long.MAX_VALUE - now);
+			if (remaining > 0) {
+				keys.add(key);
+				expiries.add(now + remaining);
+				data.add(encode(response));
+				tags.add(cacheIndex.tagsOf(response));
+			}
+		}
+		for (Map.Entry<String, IndexEntry> entry : pending.entrySet()) {
+			if (entry.getValue().expiresAt > now && !nativeCache.asMap().containsKey(entry.getKey())) {
+				ByteBuffer source = entryData(entry.getValue());
+				byte[] bytes = new byte[source.remaining()];
+				source.get(bytes);
+				keys.add(entry.getKey());
+				expiries.add(entry.getValue().expiresAt);
+				data.add(bytes);
+				tags.add(entry.getValue().tags);
+			}
+		}
+
+		byte[][] encodedKeys = new byte[keys.size()][];
+		byte[][][] encodedTags = new byte[keys.size()][][];
+		long indexSize = 12;
+		long dataSize = 0;
+		for (int i = 0; i < keys.size(); i++) {
+			encodedKeys[i] = keys.get(i).getBytes(StandardCharsets.UTF_8);
+			indexSize += 4 + encodedKeys[i].length + 8 + 4 + 4 + 4;
+			encodedTags[i] = new byte[tags.get(i).size()][];
+			int t = 0;
+			for (String tag : tags.get(i)) {
+				encodedTags[i][t] = tag.getBytes(StandardCharsets.UTF_8);
+				indexSize += 4 + encodedTags[i][t].length;
+				t++;
+			}
+			dataSize += data.get(i).length;
+		}
+		if (indexSize + dataSize > Integer.MAX_VALUE) {
+			throw new IOException("Cache snapshot too large: " + (indexSize + dataSize) + " bytes");
+		}
+
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		// Always a new file, so a planted file or link at the temporary path is never written through
+		Files.deleteIfExists(tmp);
+		Set<OpenOption> options = Set.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS);
+		FileAttribute<?>[] attributes = posix
+				? new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(OWNER_ONLY_FILE) }
+				: new FileAttribute<?>[0];
+		try (FileChannel channel = FileChannel.open(tmp, options, attributes)) {
+			MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, indexSize + dataSize);
+			out.putInt(MAGIC).putInt(VERSION).putInt(keys.size());
+			int offset = (int) indexSize;
+			for (int i = 0; i < keys.size(); i++) {
+				out.putInt(encodedKeys[i].length).put(encodedKeys[i]);
+				out.putLong(expiries.get(i)).putInt(offset).putInt(data.get(i).length);
+				out.putInt(encodedTags[i].length);
+				for (byte[] tag : encodedTags[i]) {
+					out.putInt(tag.length).put(tag);
+				}
+				offset += data.get(i).length;
+			}
+			for (byte[] bytes : data) {
+				out.put(bytes);
+			}
+			out.force();
+		}
+		// Readers of the previous file keep their mapping; the old inode lives until unmapped
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private ByteBuffer entryData(IndexEntry entry) {
+		// Absolute slice so concurrent restores do not share a position
+		return mapped.duplicate().position(entry.offset).limit(entry.offset + entry.length).slice();
+	}
+
+	private static byte[] encode(CachingGatewayFilterFactory.CachedResponse response) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(response.getBody().length + 256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(response.getStatus().value());
+		out.writeInt(response.headerCount());
+		List<String> headers = new ArrayList<>(response.headerCount() * 2);
+		response.forEachHeader((name, value) -> {
+			headers.add(name);
+			headers.add(value);
+		});
+		for (String nameOrValue : headers) {
+			writeString(out, nameOrValue);
+		}
+		out.writeInt(response.getBody().length);
+		out.write(response.getBody());
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static CachingGatewayFilterFactory.CachedResponse decode(ByteBuffer in) {
+		HttpStatus status = HttpStatus.valueOf(in.getInt());
+		HttpHeaders headers = new HttpHeaders();
+		int headerCount = in.getInt();
+		for (int i = 0; i < headerCount; i++) {
+			String name = readString(in);
+			headers.add(name, readString(in));
+		}
+		byte[] body = new byte[in.getInt()];
+		in.get(body);
+		return new CachingGatewayFilterFactory.CachedResponse(status, headers, body);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static class IndexEntry {
+		private final long expiresAt;
+		private final int offset;
+		private final int length;
+		private final Set<String> tags;
+
+		IndexEntry(long expiresAt, int offset, int length, Set<String> tags) {
+			this.expiresAt = expiresAt;
+			this.offset = offset;
+			this.length = length;
+			this.tags = tags;
+		}
+	}
+}
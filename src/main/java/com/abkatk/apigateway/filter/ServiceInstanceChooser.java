@@ -0,0 +1,80 @@
+package com.abkatk.apigateway.filter;
+
+import java.net.URI;
+import java.util.Objects;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.client.loadbalancer.reactive.ReactiveLoadBalancer;
+import org.springframework.cloud.gateway.support.NotFoundException;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Resolves {@code lb://} service ids to concrete instances for filters that
+ * call upstream services themselves instead of handing the exchange to the
+ * gateway's routing filters (hedging, aggregation). Uses the same
+ * Spring Cloud LoadBalancer as the {@code lb://} routes, so instance choice
+ * stays consistent with normal routing.
+ */
+@Component
+public class ServiceInstanceChooser {
+
+	/** How many times to ask the load balancer before giving up on a different instance. */
+	private static final int MAX_CHOOSE_ATTEMPTS = 3;
+
+	private final LoadBalancerClientFactory loadBalancerClientFactory;
+
+	public ServiceInstanceChooser(LoadBalancerClientFactory loadBalancerClientFactory) {
+		this.loadBalancerClientFactory = loadBalancerClientFactory;
+	}
+
+	/**
+	 * Chooses an instance of the given service.
+	 *
+	 * @param serviceId The service id, e.g. the host part of {@code lb://unison}.
+	 * @return A Mono emitting the chosen instance, or a {@link NotFoundException}
+	 *         if none is available.
+	 */
+	public Mono<ServiceInstance> choose(String serviceId) {
+		ReactiveLoadBalancer<ServiceInstance> loadBalancer = loadBalancerClientFactory.getInstance(serviceId);
+		if (loadBalancer == null) {
+			return Mono.error(NotFoundException.create(false, "No loadbalancer available for " + serviceId));
+		}
+		return Mono.from(loadBalancer.choose()).filter(Response::hasServer).map(Response::getServer)
+				.switchIfEmpty(Mono.error(NotFoundException.create(false, "Unable to find instance for " + serviceId)));
+	}
+
+	/**
+	 * Chooses an instance of the given service that differs from {@code excluded}.
+	 * Completes empty if the load balancer keeps returning the same instance
+	 * (typically because only one is registered).
+	 *
+	 * @param serviceId The service id.
+	 * @param excluded  The instance that must not be returned.
+	 * @return A Mono emitting a different instance, or empty.
+	 */
+	public Mono<ServiceInstance> chooseOther(String serviceId, ServiceInstance excluded) {
+		return choose(serviceId).repeat(MAX_CHOOSE_ATTEMPTS - 1).filter(instance -> !isSameInstance(instance, excluded))
+				.next();
+	}
+
+	/**
+	 * Rewrites the scheme, host and port of the given request URI to point at the
+	 * instance, keeping the already-encoded path and query.
+	 */
+	public static URI reconstructUri(ServiceInstance instance, URI requestUri) {
+		return UriComponentsBuilder.fromUri(requestUri).scheme(instance.isSecure() ? "https" : "http")
+				.host(instance.getHost()).port(instance.getPort()).build(true).toUri();
+	}
+
+	private static boolean isSameInstance(ServiceInstance a, ServiceInstance b) {
+		if (a.getInstanceId() != null && b.getInstanceId() != null) {
+			return a.getInstanceId().equals(b.getInstanceId());
+		}
+		return Objects.equals(a.getHost(), b.getHost()) && a.getPort() == b.getPort();
+	}
+}
@@ -15,9 +15,11 @@ import java.util.stream.Collectors;
 public class JwtAuthenticationManager implements ReactiveAuthenticationManager {
 
     private final JwtUtil jwtUtil; // Inject your JwtUtil for JWT operations
+    private final TokenPriorityCache tokenPriorityCache;
 
-    public JwtAuthenticationManager(JwtUtil jwtUtil) {
+    public JwtAuthenticationManager(JwtUtil jwtUtil, TokenPriorityCache tokenPriorityCache) {
         this.jwtUtil = jwtUtil;
+        this.tokenPriorityCache = tokenPriorityCache;
     }
 
     /**
@@ -56,6 +58,10 @@ public class JwtAuthenticationManager implements ReactiveAuthenticationManager {
                     .map(role -> new SimpleGrantedAuthority("ROLE_" + role.toUpperCase()))
                     .collect(Collectors.toList());
 
+            // Remember the token's priority so LoadSheddingWebFilter can rank later requests
+            // carrying it without parsing the JWT again.
+            tokenPriorityCache.record(authToken, authorities);
+
             // --- Return Authenticated Token ---
             // Create and return an authenticated UsernamePasswordAuthenticationToken.
             // Explicitly cast to Authentication to resolve the type mismatch.
@@ -0,0 +1,225 @@
+package com.abkatk.apigateway.security;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.http.server.PathContainer;
+import org.springframework.security.authentication.AuthenticationTrustResolver;
+import org.springframework.security.authentication.AuthenticationTrustResolverImpl;
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.authorization.ReactiveAuthorizationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.web.server.authorization.AuthorizationContext;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatcher;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Path-based access rules compiled into a single lookup. Every rule pattern has
+ * the form {@code /segment/**}, so the rule for a request is found with one
+ * hash lookup on the first path segment (the "path shape") instead of trying
+ * each pattern in turn. Roles are numbered, an authentication's roles become a
+ * bitmask, and each rule holds a precomputed decision per bitmask, so
+ * authorizing a request allocates nothing beyond the reactive plumbing.
+ *
+ * Rules keep the first-match-wins semantics of
+ * {@code ServerHttpSecurity.authorizeExchange().pathMatchers(...)}.
+ */
+public class PathAuthorizationRules implements ReactiveAuthorizationManager<AuthorizationContext> {
+
+    private static final String ROLE_PREFIX = "ROLE_";
+    /** Keeps the per-rule decision tables small. */
+    private static final int MAX_ROLES = 8;
+
+    private static final AuthorizationDecision GRANTED = new AuthorizationDecision(true);
+    private static final AuthorizationDecision DENIED = new AuthorizationDecision(false);
+    private static final Mono<AuthorizationDecision> GRANTED_MONO = Mono.just(GRANTED);
+
+    private final Map<String, Rule> rulesBySegment;
+    private final Rule defaultRule;
+    private final Map<String, Integer> roleBits;
+    private final AuthenticationTrustResolver trustResolver = new AuthenticationTrustResolverImpl();
+
+    private PathAuthorizationRules(Map<String, Rule> rulesBySegment, Rule defaultRule, Map<String, Integer> roleBits) {
+        this.rulesBySegment = rulesBySegment;
+        this.defaultRule = defaultRule;
+        this.roleBits = roleBits;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public Mono<AuthorizationDecision> check(Mono<Authentication> authentication, AuthorizationContext context) {
+        Rule rule = resolve(context.getExchange().getRequest().getPath().pathWithinApplication());
+        if (rule.permitAll) {
+            return GRANTED_MONO;
+        }
+        return authentication
+                .filter(auth -> auth.isAuthenticated() && !trustResolver.isAnonymous(auth))
+                .map(auth -> rule.decisions[roleMask(auth)])
+                .defaultIfEmpty(DENIED);
+    }
+
+    /**
+     * Matches every request whose path is not public, so AuthenticationWebFilter skips the
+     * authentication converter and JwtAuthenticationManager entirely on public paths.
+     *
+     * @return A matcher for requests that need authentication.
+     */
+    public ServerWebExchangeMatcher authenticationRequiredMatcher() {
+        return exchange -> resolve(exchange.getRequest().getPath().pathWithinApplication()).permitAll
+                ? ServerWebExchangeMatcher.MatchResult.notMatch()
+                : ServerWebExchangeMatcher.MatchResult.match();
+    }
+
+    /**
+     * Looks up the rule for the first path segment, decoded and without matrix parameters,
+     * which is the form pathMatchers and the handler mappings match on. Empty segments
+     * ({@code //admin}) are skipped, so a path that would be normalized still gets its rule.
+     */
+    private Rule resolve(PathContainer path) {
+        for (PathContainer.Element element : path.elements()) {
+            if (element instanceof PathContainer.PathSegment segment && !segment.valueToMatch().isEmpty()) {
+                return rulesBySegment.getOrDefault(segment.valueToMatch(), defaultRule);
+            }
+        }
+        return defaultRule;
+    }
+
+    private int roleMask(Authentication authentication) {
+        int mask = 0;
+        for (GrantedAuthority authority : authentication.getAuthorities()) {
+            Integer bit = roleBits.get(authority.getAuthority());
+            if (bit != null) {
+                mask |= bit;
+            }
+        }
+        return mask;
+    }
+
+    private static class Rule {
+        private final boolean permitAll;
+        /** Decision for an authenticated caller, indexed by role bitmask. */
+        private final AuthorizationDecision[] decisions;
+
+        Rule(boolean permitAll, AuthorizationDecision[] decisions) {
+            this.permitAll = permitAll;
+            this.decisions = decisions;
+        }
+    }
+
+    /**
+     * Collects rules in declaration order, mirroring the pathMatchers DSL.
+     */
+    public static class Builder {
+        private final Map<String, List<String>> rolesBySegment = new LinkedHashMap<>();
+        private final Map<String, Boolean> permitAllBySegment = new HashMap<>();
+        private final List<String> roles = new ArrayList<>();
+        private List<String> defaultRoles;
+        private boolean defaultPermitAll;
+        private boolean defaultSet;
+
+        public RuleSpec pathMatchers(String... patterns) {
+            List<String> segments = new ArrayList<>();
+            for (String pattern : patterns) {
+                if (!pattern.matches("/[^/*]+/\\*\\*")) {
+                    throw new IllegalArgumentException(
+                            "Only '/segment/**' patterns are supported, got '" + pattern + "'");
+                }
+                segments.add(pattern.substring(1, pattern.length() - 3));
+            }
+            return new RuleSpec(this, segments);
+        }
+
+        public RuleSpec anyExchange() {
+            return new RuleSpec(this, null);
+        }
+
+        private Builder add(List<String> segments, boolean permitAll, List<String> requiredRoles) {
+            for (String role : requiredRoles) {
+                if (!roles.contains(role)) {
+                    roles.add(role);
+                }
+            }
+            if (segments == null) {
+                defaultPermitAll = permitAll;
+                defaultRoles = requiredRoles;
+                defaultSet = true;
+                return this;
+            }
+            for (String segment : segments) {
+                // First match wins, as with pathMatchers
+                if (!permitAllBySegment.containsKey(segment)) {
+                    permitAllBySegment.put(segment, permitAll);
+                    rolesBySegment.put(segment, requiredRoles);
+                }
+            }
+            return this;
+        }
+
+        public PathAuthorizationRules build() {
+            if (!defaultSet) {
+                throw new IllegalStateException("anyExchange() rule is required");
+            }
+            if (roles.size() > MAX_ROLES) {
+                throw new IllegalStateException("At most " + MAX_ROLES + " distinct roles are supported");
+            }
+            Map<String, Integer> roleBits = new HashMap<>();
+            for (int i = 0; i < roles.size(); i++) {
+                roleBits.put(ROLE_PREFIX + roles.get(i), 1 << i);
+            }
+            Map<String, Rule> rules = new HashMap<>();
+            rolesBySegment.forEach((segment, requiredRoles) -> rules.put(segment,
+                    compile(permitAllBySegment.get(segment), requiredRoles, roleBits)));
+            return new PathAuthorizationRules(rules, compile(defaultPermitAll, defaultRoles, roleBits), roleBits);
+        }
+
+        private Rule compile(boolean permitAll, List<String> requiredRoles, Map<String, Integer> roleBits) {
+            int requiredMask = 0;
+            for (String role : requiredRoles) {
+                requiredMask |= roleBits.get(ROLE_PREFIX + role);
+            }
+            AuthorizationDecision[] decisions = new AuthorizationDecision[1 << roles.size()];
+            for (int mask = 0; mask < decisions.length; mask++) {
+                // No required roles means any authenticated caller is allowed
+                decisions[mask] = requiredMask == 0 || (mask & requiredMask) != 0 ? GRANTED : DENIED;
+            }
+            return new Rule(permitAll, decisions);
+        }
+    }
+
+    /**
+     * Access requirement for the patterns passed to {@link Builder#pathMatchers(String...)}.
+     */
+    public static class RuleSpec {
+        private final Builder builder;
+        private final List<String> segments;
+
+        private RuleSpec(Builder builder, List<String> segments) {
+            this.builder = builder;
+            this.segments = segments;
+        }
+
+        public Builder permitAll() {
+            return builder.add(segments, true, List.of());
+        }
+
+        public Builder authenticated() {
+            return builder.add(segments, false, List.of());
+        }
+
+        public Builder hasRole(String role) {
+            return builder.add(segments, false, List.of(role));
+        }
+
+        public Builder hasAnyRole(String... roles) {
+            return builder.add(segments, false, List.of(roles));
+        }
+    }
+}
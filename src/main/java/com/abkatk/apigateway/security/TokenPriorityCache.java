@@ -0,0 +1,46 @@
+package com.abkatk.apigateway.security;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.stereotype.Component;
+
+import com.abkatk.apigateway.filter.RequestPriority;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+@Component
+public class TokenPriorityCache {
+
+    private static final String ADMIN_AUTHORITY = "ROLE_ADMIN";
+
+    // Bounded so that a flood of distinct tokens cannot grow it without limit
+    private final Cache<String, RequestPriority> priorities = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * Records the priority of a token that JwtAuthenticationManager has just validated.
+     * ADMIN tokens get HIGH priority, every other valid token NORMAL.
+     *
+     * @param token       The raw JWT string (without the "Bearer " prefix).
+     * @param authorities The authorities extracted from the token.
+     */
+    public void record(String token, Collection<? extends GrantedAuthority> authorities) {
+        boolean admin = authorities.stream().anyMatch(a -> ADMIN_AUTHORITY.equals(a.getAuthority()));
+        priorities.put(token, admin ? RequestPriority.HIGH : RequestPriority.NORMAL);
+    }
+
+    /**
+     * Looks up the priority recorded for a previously validated token. This is a hash lookup
+     * only, so it can run before the token is parsed or its signature is checked.
+     *
+     * @param token The raw JWT string.
+     * @return The recorded priority, or null if the token has not been validated recently.
+     */
+    public RequestPriority lookup(String token) {
+        return priorities.getIfPresent(token);
+    }
+}
@@ -0,0 +1,82 @@
+package com.abkatk.apigateway.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class FallbackPayloadRegistryTest {
+
+    private static final String PREVIOUS = "{\"message\":\"Catalog is unavailable\"}";
+
+    private Path directory;
+    private FallbackPayloadRegistry registry;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("fallback-test");
+        Files.writeString(directory.resolve("catalog.json"), PREVIOUS);
+        registry = new FallbackPayloadRegistry(directory.toString());
+        registry.load();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        registry.stop();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    void loadsPayloadsFromTheDirectory() {
+        assertEquals(PREVIOUS, payload("catalog"));
+    }
+
+    @Test
+    void reloadsAChangedFile() throws Exception {
+        String updated = "{\"message\":\"Catalog is down for maintenance\"}";
+        Files.writeString(directory.resolve("catalog.json"), updated);
+
+        assertEquals(updated, awaitPayload("catalog", updated));
+    }
+
+    @Test
+    void keepsThePreviousPayloadWhenTheFileIsHalfWritten() throws Exception {
+        Files.writeString(directory.resolve("catalog.json"), "{\"message\":\"Catalog is do");
+        Files.writeString(directory.resolve("other.json"), "{}");
+        // other.json shows that the watcher has processed the changes
+        awaitPayload("other", "{}");
+
+        assertEquals(PREVIOUS, payload("catalog"));
+    }
+
+    private String awaitPayload(String service, String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        String payload = payload(service);
+        while (!expected.equals(payload) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            payload = payload(service);
+        }
+        return payload;
+    }
+
+    private String payload(String service) {
+        ByteBuffer buffer = registry.payloadFor(service);
+        if (buffer == null) {
+            return null;
+        }
+        return StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+    }
+}
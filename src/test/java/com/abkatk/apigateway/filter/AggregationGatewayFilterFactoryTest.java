@@ -0,0 +1,203 @@
+package com.abkatk.apigateway.filter;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.BindException;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.support.NotFoundException;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.netty.handler.codec.http.HttpResponseStatus;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * Runs aggregation routes against a stub backend registered as service
+ * "stub"; any other service id has no instances.
+ */
+class AggregationGatewayFilterFactoryTest {
+
+	private final AtomicInteger cachedLegCalls = new AtomicInteger();
+	private final AtomicInteger invalidLegCalls = new AtomicInteger();
+	private DisposableServer backend;
+	private AggregationGatewayFilterFactory factory;
+
+	@BeforeEach
+	void setUp() {
+		backend = HttpServer.create().port(0).route(routes -> routes
+				.get("/profile", (request, response) -> response.header("Content-Type", "application/json")
+						.sendString(Mono.just("{\"name\":\"ada\"}")))
+				.get("/orders", (request, response) -> response.header("Content-Type", "application/json")
+						.sendString(Mono.just("[1,2]")))
+				.get("/motd", (request, response) -> response.header("Content-Type", "text/plain")
+						.sendString(Mono.just("say \"hi\"")))
+				.get("/broken", (request, response) -> response.status(HttpResponseStatus.INTERNAL_SERVER_ERROR)
+						.sendString(Mono.just("boom")))
+				.get("/truncated", (request, response) -> response.header("Content-Type", "application/json")
+						.sendString(Mono.fromSupplier(() -> {
+							invalidLegCalls.incrementAndGet();
+							return "{\"name\":\"ad";
+						})))
+				.get("/html", (request, response) -> response.header("Content-Type", "application/json")
+						.sendString(Mono.just("<html><body>Bad Gateway</body></html>")))
+				.get("/slow", (request, response) -> response.header("Content-Type", "application/json")
+						.sendString(Mono.just("{}").delayElement(Duration.ofSeconds(2))))
+				.get("/counted", (request, response) -> response.header("Content-Type", "application/json")
+						.sendString(Mono.fromSupplier(() -> "{\"calls\":" + cachedLegCalls.incrementAndGet() + "}"))))
+				.bindNow();
+
+		ServiceInstance stub = new DefaultServiceInstance("stub-1", "stub", "localhost", backend.port(), false);
+		ServiceInstanceChooser chooser = new ServiceInstanceChooser(null) {
+			@Override
+			public Mono<ServiceInstance> choose(String serviceId) {
+				return "stub".equals(serviceId) ? Mono.just(stub)
+						: Mono.error(NotFoundException.create(false, "Unable to find instance for " + serviceId));
+			}
+		};
+		factory = new AggregationGatewayFilterFactory(chooser, WebClient.builder(),
+				new CaffeineCacheManager("apiResponses"), new ResponseCacheIndex("X-Cache-Tags"), new ObjectMapper());
+	}
+
+	@AfterEach
+	void tearDown() {
+		backend.disposeNow();
+	}
+
+	@Test
+	void mergesLegResultsIntoOneObject() {
+		client(new AggregationGatewayFilterFactory.Config()
+				.addLeg("profile", "lb://stub/profile", Duration.ofSeconds(1))
+				.addLeg("orders", "lb://stub/orders", Duration.ofSeconds(1))
+				.addLeg("motd", "lb://stub/motd", Duration.ofSeconds(1)))
+				.get().uri("/aggregate").exchange()
+				.expectStatus().isOk()
+				.expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_JSON)
+				.expectBody()
+				.jsonPath("$.profile.name").isEqualTo("ada")
+				.jsonPath("$.orders.length()").isEqualTo(2)
+				// Non-JSON bodies are embedded as JSON strings
+				.jsonPath("$.motd").isEqualTo("say \"hi\"");
+	}
+
+	@Test
+	void failedLegIsReportedWithoutFailingTheOthers() {
+		client(new AggregationGatewayFilterFactory.Config()
+				.addLeg("profile", "lb://stub/profile", Duration.ofSeconds(1))
+				.addLeg("broken", "lb://stub/broken", Duration.ofSeconds(1))
+				.addLeg("missing", "lb://nowhere/anything", Duration.ofSeconds(1)))
+				.get().uri("/aggregate").exchange()
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.profile.name").isEqualTo("ada")
+				.jsonPath("$.broken.error").isEqualTo("Upstream responded 500")
+				.jsonPath("$.missing.error").exists();
+	}
+
+	@Test
+	void invalidJsonLegIsReportedAsAnError() {
+		WebTestClient client = client(new AggregationGatewayFilterFactory.Config()
+				.addLeg("profile", "lb://stub/profile", Duration.ofSeconds(1))
+				.addLeg("truncated", "lb://stub/truncated", Duration.ofSeconds(1), true)
+				.addLeg("html", "lb://stub/html", Duration.ofSeconds(1)));
+		for (int i = 0; i < 2; i++) {
+			client.get().uri("/aggregate").exchange()
+					.expectStatus().isOk()
+					.expectBody()
+					.jsonPath("$.profile.name").isEqualTo("ada")
+					.jsonPath("$.truncated.error").isEqualTo("Invalid JSON from upstream")
+					.jsonPath("$.html.error").isEqualTo("Invalid JSON from upstream");
+		}
+		// An invalid body is never cached
+		if (invalidLegCalls.get() != 2) {
+			throw new AssertionError("Expected 2 upstream calls, got " + invalidLegCalls.get());
+		}
+	}
+
+	@Test
+	void slowLegTimesOutWithoutHoldingBackTheResponse() {
+		long start = System.nanoTime();
+		client(new AggregationGatewayFilterFactory.Config()
+				.addLeg("orders", "lb://stub/orders", Duration.ofSeconds(1))
+				.addLeg("slow", "lb://stub/slow", Duration.ofMillis(200)))
+				.get().uri("/aggregate").exchange()
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.orders.length()").isEqualTo(2)
+				.jsonPath("$.slow.error").isEqualTo("Timed out after 200ms");
+		long elapsedMillis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+		if (elapsedMillis >= 2000) {
+			throw new AssertionError("Response waited for the slow leg: " + elapsedMillis + "ms");
+		}
+	}
+
+	@Test
+	void cachedLegIsServedFromTheResponseCache() {
+		WebTestClient client = client(new AggregationGatewayFilterFactory.Config()
+				.addLeg("counted", "lb://stub/counted", Duration.ofSeconds(1), true));
+		for (int i = 0; i < 3; i++) {
+			client.get().uri("/aggregate").exchange()
+					.expectStatus().isOk()
+					.expectBody()
+					.jsonPath("$.counted.calls").isEqualTo(1);
+		}
+	}
+
+	@Test
+	void routeArgsBindOntoTheConfig() {
+		// Route definitions bind filter args the same way
+		AggregationGatewayFilterFactory.Config config = bind(Map.of(
+				"legs[0].name", "profile",
+				"legs[0].uri", "lb://stub/profile",
+				"legs[0].timeout", "1s",
+				"legs[1].name", "counted",
+				"legs[1].uri", "lb://stub/counted",
+				"legs[1].timeout", "500ms",
+				"legs[1].cached", "true"));
+		if (config.getLegs().size() != 2 || !config.getLegs().get(1).isCached()
+				|| !Duration.ofMillis(500).equals(config.getLegs().get(1).getTimeout())) {
+			throw new AssertionError("Unexpected legs: " + config.getLegs().size());
+		}
+		client(config).get().uri("/aggregate").exchange()
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.profile.name").isEqualTo("ada")
+				.jsonPath("$.counted.calls").isEqualTo(1);
+	}
+
+	@Test
+	void routeArgsWithANonLoadBalancedLegAreRejected() {
+		try {
+			bind(Map.of("legs[0].name", "profile", "legs[0].uri", "http://stub/profile", "legs[0].timeout", "1s"));
+		} catch (BindException e) {
+			return;
+		}
+		throw new AssertionError("Expected the http:// leg to be rejected");
+	}
+
+	private AggregationGatewayFilterFactory.Config bind(Map<String, String> args) {
+		return new Binder(new MapConfigurationPropertySource(args))
+				.bind("", Bindable.ofInstance(factory.newConfig())).get();
+	}
+
+	private WebTestClient client(AggregationGatewayFilterFactory.Config config) {
+		GatewayFilter filter = factory.apply(config);
+		return WebTestClient.bindToWebHandler(exchange -> filter.filter(exchange, chainExchange -> Mono.empty()))
+				.configureClient().responseTimeout(Duration.ofSeconds(5)).build();
+	}
+}
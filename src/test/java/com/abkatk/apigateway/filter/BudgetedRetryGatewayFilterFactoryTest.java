@@ -0,0 +1,150 @@
+package com.abkatk.apigateway.filter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_CONN_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_LOADBALANCER_RESPONSE_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+
+import io.netty.handler.codec.http.HttpResponseStatus;
+import reactor.core.publisher.Mono;
+import reactor.netty.Connection;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * Runs the retry filter between stand-ins for the gateway's routing filters
+ * (load balancer and Netty routing, which leave the upstream connection in the
+ * exchange) and NettyWriteResponseFilter (which writes the body from it). The
+ * stand-in load balancer always picks the failing instance.
+ */
+class BudgetedRetryGatewayFilterFactoryTest {
+
+	private final AtomicInteger failingCalls = new AtomicInteger();
+	private final AtomicInteger healthyCalls = new AtomicInteger();
+	private DisposableServer failing;
+	private DisposableServer healthy;
+	private ServiceInstance failingInstance;
+	private ServiceInstance healthyInstance;
+	private final HttpClient httpClient = HttpClient.create();
+
+	@BeforeEach
+	void setUp() {
+		failing = HttpServer.create().port(0).route(routes -> routes.get("/item", (request, response) -> {
+			failingCalls.incrementAndGet();
+			return response.status(HttpResponseStatus.SERVICE_UNAVAILABLE).sendString(Mono.just("unavailable"));
+		})).bindNow();
+		healthy = HttpServer.create().port(0).route(routes -> routes.get("/item", (request, response) -> {
+			healthyCalls.incrementAndGet();
+			return response.sendString(Mono.just("ok"));
+		})).bindNow();
+		failingInstance = new DefaultServiceInstance("failing", "stub", "localhost", failing.port(), false);
+		healthyInstance = new DefaultServiceInstance("healthy", "stub", "localhost", healthy.port(), false);
+	}
+
+	@AfterEach
+	void tearDown() {
+		failing.disposeNow();
+		healthy.disposeNow();
+	}
+
+	@Test
+	void retryGoesToAnotherInstance() {
+		MockServerWebExchange exchange = exchange();
+		run(filter(failingInstance, healthyInstance), exchange);
+
+		assertEquals(HttpStatus.OK, exchange.getResponse().getStatusCode());
+		assertEquals("ok", exchange.getResponse().getBodyAsString().block(Duration.ofSeconds(5)));
+		assertEquals(1, failingCalls.get());
+		assertEquals(1, healthyCalls.get());
+	}
+
+	@Test
+	void lastResponseIsWrittenWhenEveryAttemptFails() {
+		MockServerWebExchange exchange = exchange();
+		// The only instance fails, so every retry goes back through the load balancer
+		run(filter(failingInstance), exchange);
+
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exchange.getResponse().getStatusCode());
+		assertEquals("unavailable", exchange.getResponse().getBodyAsString().block(Duration.ofSeconds(5)));
+		assertEquals(3, failingCalls.get());
+	}
+
+	private GatewayFilter filter(ServiceInstance... instances) {
+		ServiceInstanceChooser chooser = new ServiceInstanceChooser(null) {
+			private final AtomicInteger next = new AtomicInteger();
+
+			@Override
+			public Mono<ServiceInstance> choose(String serviceId) {
+				// Chooses on subscription, like the load balancer
+				return Mono.fromSupplier(() -> instances[Math.floorMod(next.getAndIncrement(), instances.length)]);
+			}
+		};
+		return new BudgetedRetryGatewayFilterFactory(chooser).apply(new BudgetedRetryGatewayFilterFactory.Config()
+				.setFirstBackoff(Duration.ofMillis(1))
+				.setMaxBackoff(Duration.ofMillis(5)));
+	}
+
+	private void run(GatewayFilter filter, ServerWebExchange exchange) {
+		filter.filter(exchange, this::route)
+				.then(Mono.defer(() -> writeUpstreamBody(exchange)))
+				.block(Duration.ofSeconds(5));
+	}
+
+	/**
+	 * Routes lb:// routes to the failing instance and other routes to their URI,
+	 * leaving the unread response in the exchange like NettyRoutingFilter.
+	 */
+	private Mono<Void> route(ServerWebExchange exchange) {
+		Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+		URI target = route.getUri();
+		if ("lb".equals(target.getScheme())) {
+			exchange.getAttributes().put(GATEWAY_LOADBALANCER_RESPONSE_ATTR, new DefaultResponse(failingInstance));
+			target = ServiceInstanceChooser.reconstructUri(failingInstance, target);
+		}
+		return httpClient.get().uri(target.resolve(exchange.getRequest().getURI().getRawPath()))
+				.responseConnection((upstream, connection) -> {
+					ServerHttpResponse response = exchange.getResponse();
+					response.setStatusCode(HttpStatus.valueOf(upstream.status().code()));
+					exchange.getAttributes().put(CLIENT_RESPONSE_CONN_ATTR, connection);
+					return Mono.just(upstream);
+				})
+				.then();
+	}
+
+	private static Mono<Void> writeUpstreamBody(ServerWebExchange exchange) {
+		Connection connection = exchange.getAttribute(CLIENT_RESPONSE_CONN_ATTR);
+		ServerHttpResponse response = exchange.getResponse();
+		return response.writeWith(connection.inbound().receive().retain()
+				.map(byteBuf -> response.bufferFactory().wrap(byteBuf.nioBuffer())));
+	}
+
+	private static MockServerWebExchange exchange() {
+		MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/item"));
+		exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, Route.async()
+				.id("stub")
+				.uri(URI.create("lb://stub"))
+				.predicate(e -> true)
+				.build());
+		return exchange;
+	}
+}
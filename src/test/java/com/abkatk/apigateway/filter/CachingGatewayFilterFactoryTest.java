@@ -0,0 +1,138 @@
+package com.abkatk.apigateway.filter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.netty.handler.codec.http.HttpResponseStatus;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * Runs the caching filter in front of a chain that proxies to a stub backend
+ * and writes the upstream body through the exchange's response, as the
+ * gateway's routing and write filters do.
+ */
+class CachingGatewayFilterFactoryTest {
+
+	private static final String ITEM = "{\"id\":8,\"description\":\"" + "x".repeat(2400) + "\"}";
+
+	private static final String UNAVAILABLE = "{\"error\":\"Service unavailable\"}";
+	private static final String LARGE = "[" + "{\"id\":1,\"name\":\"item\"},".repeat(8000) + "{}]";
+
+	private final AtomicInteger upstreamCalls = new AtomicInteger();
+	private DisposableServer backend;
+	private WebTestClient client;
+
+	@BeforeEach
+	void setUp() {
+		backend = HttpServer.create().port(0).route(routes -> routes
+				.get("/item/8", (request, response) -> {
+					upstreamCalls.incrementAndGet();
+					return response.header("Content-Type", "application/json").sendString(Mono.just(ITEM));
+				})
+				.get("/unavailable/3", (request, response) -> {
+					upstreamCalls.incrementAndGet();
+					return response.status(HttpResponseStatus.SERVICE_UNAVAILABLE)
+							.header("Content-Type", "application/json").sendString(Mono.just(UNAVAILABLE));
+				})
+				.get("/items", (request, response) -> {
+					upstreamCalls.incrementAndGet();
+					return response.header("Content-Type", "application/json").sendString(Mono.just(LARGE));
+				}))
+				.bindNow();
+
+		CaffeineCacheManager cacheManager = new CaffeineCacheManager("apiResponses");
+		cacheManager.registerCustomCache("negativeResponses", Caffeine.newBuilder().build());
+		ResponseCacheIndex cacheIndex = new ResponseCacheIndex("X-Cache-Tags");
+		ResponseCacheSnapshot snapshot = new ResponseCacheSnapshot(cacheManager, cacheIndex, false,
+				Paths.get(System.getProperty("java.io.tmpdir"), "unused.snapshot").toString(), Duration.ofMinutes(1));
+		GatewayFilter filter = new CachingGatewayFilterFactory(cacheManager, snapshot, cacheIndex)
+				.apply(new CachingGatewayFilterFactory.Config());
+		GatewayFilterChain upstream = proxyTo(WebClient.create("http://localhost:" + backend.port()));
+		client = WebTestClient.bindToWebHandler(exchange -> filter.filter(exchange, upstream))
+				.configureClient().responseTimeout(Duration.ofSeconds(2)).build();
+	}
+
+	@AfterEach
+	void tearDown() {
+		backend.disposeNow();
+	}
+
+	@Test
+	void cacheMissWritesTheWholeUpstreamBody() {
+		for (int i = 0; i < 2; i++) {
+			client.get().uri("/item/8").exchange()
+					.expectStatus().isOk()
+					.expectHeader().contentLength(ITEM.length())
+					.expectBody(String.class).isEqualTo(ITEM);
+		}
+		// The second response was a cache hit
+		assertEquals(1, upstreamCalls.get());
+	}
+
+	@Test
+	void errorResponseIsWrittenAndThenServedFromTheNegativeCache() {
+		// The client's response timeout fails the test if the miss is not answered promptly
+		for (int i = 0; i < 2; i++) {
+			client.get().uri("/unavailable/3").exchange()
+					.expectStatus().isEqualTo(503)
+					.expectHeader().contentLength(UNAVAILABLE.length())
+					.expectBody(String.class).isEqualTo(UNAVAILABLE);
+		}
+		// The second response was a negative cache hit
+		assertEquals(1, upstreamCalls.get());
+	}
+
+	@Test
+	void cacheHitIsServedGzipEncodedToClientsThatAcceptIt() throws IOException {
+		client.get().uri("/items").exchange()
+				.expectStatus().isOk()
+				.expectBody(String.class).isEqualTo(LARGE);
+
+		// Large enough for the variant to be built off the event loop
+		byte[] gzipBody = client.get().uri("/items").header(HttpHeaders.ACCEPT_ENCODING, "gzip").exchange()
+				.expectStatus().isOk()
+				.expectHeader().valueEquals(HttpHeaders.CONTENT_ENCODING, "gzip")
+				.expectBody().returnResult().getResponseBody();
+		try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipBody))) {
+			assertEquals(LARGE, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+		assertEquals(1, upstreamCalls.get());
+	}
+
+	/**
+	 * Copies the upstream status and headers, including Content-Length, and
+	 * streams its body through the (decorated) response.
+	 */
+	private static GatewayFilterChain proxyTo(WebClient webClient) {
+		return exchange -> webClient.get().uri(exchange.getRequest().getURI().getRawPath())
+				.exchangeToMono(upstreamResponse -> {
+					ServerHttpResponse response = exchange.getResponse();
+					response.setStatusCode(upstreamResponse.statusCode());
+					response.getHeaders().putAll(upstreamResponse.headers().asHttpHeaders());
+					return response.writeWith(upstreamResponse.bodyToFlux(DataBuffer.class));
+				});
+	}
+}
@@ -0,0 +1,142 @@
+package com.abkatk.apigateway.filter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * Runs the hedging filter with a stubbed first attempt (the gateway chain) and
+ * a stub backend that answers hedges.
+ */
+class HedgingGatewayFilterFactoryTest {
+
+	private static final Duration HEDGE_DELAY = Duration.ofMillis(50);
+
+	private final AtomicInteger hedgesReceived = new AtomicInteger();
+	private final Sinks.Empty<Void> slowHedgeReceived = Sinks.empty();
+	private final CountDownLatch slowHedgeClosed = new CountDownLatch(1);
+	private DisposableServer backend;
+	private GatewayFilter filter;
+
+	@BeforeEach
+	void setUp() {
+		backend = HttpServer.create().port(0).route(routes -> routes
+				.get("/item", (request, response) -> {
+					hedgesReceived.incrementAndGet();
+					return response.header("Content-Type", "text/plain").sendString(Mono.just("from hedge"));
+				})
+				.get("/slow-item", (request, response) -> {
+					hedgesReceived.incrementAndGet();
+					// Kept alive when answered, so the connection only closes if the hedge is cancelled
+					request.withConnection(connection -> connection.onDispose(slowHedgeClosed::countDown));
+					slowHedgeReceived.tryEmitEmpty();
+					return response.sendString(Mono.just("late hedge").delayElement(Duration.ofSeconds(2)));
+				}))
+				.bindNow();
+
+		ServiceInstance stub = new DefaultServiceInstance("stub-1", "stub", "localhost", backend.port(), false);
+		ServiceInstanceChooser chooser = new ServiceInstanceChooser(null) {
+			@Override
+			public Mono<ServiceInstance> choose(String serviceId) {
+				return Mono.just(stub);
+			}
+		};
+		filter = new HedgingGatewayFilterFactory(chooser, WebClient.builder())
+				.apply(new HedgingGatewayFilterFactory.Config()
+						.setEnabled(true)
+						.setMinDelay(HEDGE_DELAY)
+						.setMaxDelay(HEDGE_DELAY)
+						.setBudgetPercent(100));
+	}
+
+	@AfterEach
+	void tearDown() {
+		backend.disposeNow();
+	}
+
+	@Test
+	void fastFirstAttemptSendsNoHedge() throws InterruptedException {
+		MockServerWebExchange exchange = exchange("/item");
+		filter.filter(exchange, firstAttempt(Duration.ofMillis(5), null)).block(Duration.ofSeconds(5));
+
+		// Give a hedge that was not cancelled time to fire
+		Thread.sleep(HEDGE_DELAY.toMillis() * 4);
+		assertEquals(0, hedgesReceived.get());
+	}
+
+	@Test
+	void hedgeInFlightIsCancelledWhenTheFirstAttemptWins() throws InterruptedException {
+		MockServerWebExchange exchange = exchange("/slow-item");
+		// The first attempt answers while the hedge is waiting for its response
+		filter.filter(exchange, ex -> slowHedgeReceived.asMono()).block(Duration.ofSeconds(5));
+
+		assertEquals(1, hedgesReceived.get());
+		assertTrue(slowHedgeClosed.await(1, TimeUnit.SECONDS), "Losing hedge was not cancelled");
+	}
+
+	@Test
+	void slowFirstAttemptLosesToTheHedge() {
+		MockServerWebExchange exchange = exchange("/item");
+		filter.filter(exchange, firstAttempt(Duration.ofSeconds(2), null)).block(Duration.ofSeconds(5));
+
+		assertEquals(1, hedgesReceived.get());
+		assertEquals(HttpStatus.OK, exchange.getResponse().getStatusCode());
+		assertEquals("from hedge", exchange.getResponse().getBodyAsString().block());
+	}
+
+	@Test
+	void hedgeRescuesAFailedFirstAttempt() {
+		MockServerWebExchange exchange = exchange("/item");
+		filter.filter(exchange, firstAttempt(HEDGE_DELAY.multipliedBy(2), new IOException("Connection reset")))
+				.block(Duration.ofSeconds(5));
+
+		assertEquals(1, hedgesReceived.get());
+		assertEquals("from hedge", exchange.getResponse().getBodyAsString().block());
+	}
+
+	private static MockServerWebExchange exchange(String path) {
+		MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get(path));
+		exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, Route.async()
+				.id("stub")
+				.uri(URI.create("lb://stub"))
+				.predicate(e -> true)
+				.build());
+		return exchange;
+	}
+
+	/**
+	 * Stands in for the routing filters: completes, or fails with the given
+	 * error, once the delay has passed.
+	 */
+	private static GatewayFilterChain firstAttempt(Duration delay, Throwable error) {
+		return exchange -> {
+			Mono<Void> headers = Mono.delay(delay).then();
+			return error != null ? headers.then(Mono.error(error)) : headers;
+		};
+	}
+}
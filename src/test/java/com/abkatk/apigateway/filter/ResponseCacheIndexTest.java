@@ -0,0 +1,68 @@
+package com.abkatk.apigateway.filter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+class ResponseCacheIndexTest {
+
+	private final ResponseCacheIndex index = new ResponseCacheIndex("X-Cache-Tags");
+
+	@Test
+	void indexesEntriesByTagAndPath() {
+		CaffeineCache cache = cache(Long.MAX_VALUE);
+		index.put(cache, "http://gateway/unison/user/1", response("user user-1"));
+		index.put(cache, "http://gateway/unison/item/2", response("item"));
+
+		assertEquals(Set.of("http://gateway/unison/user/1"), index.keysForTag("user-1"));
+		assertEquals(Set.of("http://gateway/unison/user/1"), index.keysForPathPrefix("/unison/user/"));
+		assertEquals(2, index.keysForPathPrefix("/unison/").size());
+	}
+
+	@Test
+	void entryRejectedByTheCacheIsNotLeftInTheIndex() {
+		// Too small for any entry; the removal listener runs on the caller's thread,
+		// so the eviction is reported before the entry is indexed
+		CaffeineCache cache = cache(1);
+		index.put(cache, "http://gateway/unison/user/1", response("user"));
+
+		assertTrue(cache.getNativeCache().asMap().isEmpty());
+		assertTrue(index.keysForTag("user").isEmpty());
+		assertTrue(index.keysForPathPrefix("/").isEmpty());
+	}
+
+	@Test
+	void removalUnindexesTheEntry() {
+		CaffeineCache cache = cache(Long.MAX_VALUE);
+		index.put(cache, "http://gateway/unison/user/1", response("user"));
+		cache.evict("http://gateway/unison/user/1");
+
+		assertTrue(index.keysForTag("user").isEmpty());
+		assertTrue(index.keysForPathPrefix("/").isEmpty());
+	}
+
+	private CaffeineCache cache(long maximumWeight) {
+		return new CaffeineCache("apiResponses", Caffeine.newBuilder()
+				.maximumWeight(maximumWeight)
+				.weigher((Object key, Object value) -> ((CachingGatewayFilterFactory.CachedResponse) value).weight())
+				.executor(Runnable::run)
+				.removalListener(index::onRemoval)
+				.build());
+	}
+
+	private static CachingGatewayFilterFactory.CachedResponse response(String tags) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.set("X-Cache-Tags", tags);
+		return new CachingGatewayFilterFactory.CachedResponse(HttpStatus.OK, headers,
+				"{}".getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,82 @@
+package com.abkatk.apigateway.filter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+class ResponseCacheSnapshotTest {
+
+	private static final String USER_KEY = "http://gateway/unison/user/1";
+	private static final String ITEM_KEY = "http://gateway/unison/item/2";
+
+	private final ResponseCacheIndex cacheIndex = new ResponseCacheIndex("X-Cache-Tags");
+	private Path directory;
+	private ResponseCacheSnapshot restarted;
+
+	@BeforeEach
+	void writeSnapshot() throws IOException {
+		directory = Files.createTempDirectory("snapshot-test");
+		CacheManager cacheManager = new CaffeineCacheManager("apiResponses");
+		cacheManager.getCache("apiResponses").put(USER_KEY, response("user user-1", "{\"id\":1}"));
+		cacheManager.getCache("apiResponses").put(ITEM_KEY, response("item", "{\"id\":2}"));
+		snapshot(cacheManager).write();
+
+		// A restarted gateway with an empty cache
+		restarted = snapshot(new CaffeineCacheManager("apiResponses"));
+		restarted.start();
+	}
+
+	@AfterEach
+	void deleteSnapshot() throws IOException {
+		restarted.stop();
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Test
+	void restoresEntriesFromTheSnapshot() {
+		CachingGatewayFilterFactory.CachedResponse user = restarted.restore(USER_KEY);
+		assertNotNull(user);
+		assertEquals("{\"id\":1}", new String(user.getBody(), StandardCharsets.UTF_8));
+		assertEquals("user user-1", user.getFirstHeader("X-Cache-Tags"));
+	}
+
+	@Test
+	void tagInvalidationDiscardsOnlyTaggedSnapshotEntries() {
+		restarted.discardTag("user-1");
+
+		assertNull(restarted.restore(USER_KEY));
+		assertNotNull(restarted.restore(ITEM_KEY));
+	}
+
+	private ResponseCacheSnapshot snapshot(CacheManager cacheManager) {
+		return new ResponseCacheSnapshot(cacheManager, cacheIndex, true,
+				directory.resolve("cache.snapshot").toString(), Duration.ofHours(1));
+	}
+
+	private static CachingGatewayFilterFactory.CachedResponse response(String tags, String body) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.set("X-Cache-Tags", tags);
+		return new CachingGatewayFilterFactory.CachedResponse(HttpStatus.OK, headers,
+				body.getBytes(StandardCharsets.UTF_8));
+	}
+}
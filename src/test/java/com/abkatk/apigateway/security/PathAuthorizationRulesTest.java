@@ -0,0 +1,80 @@
+package com.abkatk.apigateway.security;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.web.server.authorization.AuthorizationContext;
+import org.springframework.web.server.ServerWebExchange;
+
+import reactor.core.publisher.Mono;
+
+class PathAuthorizationRulesTest {
+
+    private final PathAuthorizationRules rules = PathAuthorizationRules.builder()
+            .pathMatchers("/public/**", "/actuator/**", "/fallback/**").permitAll()
+            .pathMatchers("/admin/**").hasRole("ADMIN")
+            .pathMatchers("/users/**").hasAnyRole("USER", "ADMIN")
+            .anyExchange().authenticated()
+            .build();
+
+    @Test
+    void adminPathRequiresAdminRole() {
+        assertFalse(granted("/admin/cache/entries", "USER"));
+        assertTrue(granted("/admin/cache/entries", "ADMIN"));
+    }
+
+    @Test
+    void encodedSegmentResolvesToTheDecodedRule() {
+        assertFalse(granted("/%61dmin/cache/entries", "USER"));
+        assertTrue(granted("/%61dmin/cache/entries", "ADMIN"));
+    }
+
+    @Test
+    void matrixParametersAreIgnoredWhenResolvingTheRule() {
+        assertFalse(granted("/admin;x=y/cache/entries", "USER"));
+        assertFalse(granted("/%61dmin;x=y/cache/entries", "USER"));
+    }
+
+    @Test
+    void emptySegmentsDoNotHideTheFirstSegment() {
+        assertFalse(granted("//admin/cache/entries", "USER"));
+    }
+
+    @Test
+    void publicPathsNeedNoAuthentication() {
+        assertTrue(rules.check(Mono.empty(), context("/public/info")).block().isGranted());
+        assertFalse(rules.authenticationRequiredMatcher().matches(exchange("/public/info")).block().isMatch());
+        assertTrue(rules.authenticationRequiredMatcher().matches(exchange("/%61dmin/cache")).block().isMatch());
+    }
+
+    @Test
+    void otherPathsRequireAnyAuthenticatedCaller() {
+        assertTrue(granted("/orders/1", "USER"));
+        assertFalse(rules.check(Mono.empty(), context("/orders/1")).block().isGranted());
+    }
+
+    private boolean granted(String path, String role) {
+        Authentication authentication = new UsernamePasswordAuthenticationToken("user", null,
+                List.of(new SimpleGrantedAuthority("ROLE_" + role)));
+        return rules.check(Mono.just(authentication), context(path)).block().isGranted();
+    }
+
+    private static AuthorizationContext context(String path) {
+        return new AuthorizationContext(exchange(path));
+    }
+
+    private static ServerWebExchange exchange(String path) {
+        // The URI overload keeps the path exactly as sent, without re-encoding '%'
+        return MockServerWebExchange.from(MockServerHttpRequest.method(HttpMethod.DELETE, URI.create("http://localhost" + path)).build());
+    }
+}